@@ -0,0 +1,100 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.util.PasswordHasher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * Creates an embedded H2 database from create.sql and fills it with realistic row counts, then points the
+ * shared ConnectionManager pool at it.
+ */
+public class BenchDatabase {
+    public static final String PASSWORD = "Bench#Pass1";
+    public static final String VACCINE = "Pfizer";
+    public static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    private static final String schema = System.getProperty("scheduler.bench.schema", "src/main/resources/create.sql");
+
+    public static void create(String name, int caregivers, int days, int patients) throws SQLException, IOException {
+        String url = "jdbc:h2:mem:" + name + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1";
+        ConnectionManager.setPool(new ConnectionPool.PoolBuilder(url, "sa", "")
+                .minSize(1)
+                .maxSize(Runtime.getRuntime().availableProcessors() * 2)
+                .leakThresholdMillis(0)
+                .build());
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            Statement statement = con.createStatement();
+            String ddl = new String(Files.readAllBytes(Paths.get(schema)), StandardCharsets.UTF_8);
+            for (String sql : ddl.split(";")) {
+                if (!sql.replaceAll("(?m)^\\s*--.*$", "").trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+
+            // every user shares one password hash, hashing is benchmarked separately
+            PasswordHasher.Hashed hashed = PasswordHasher.getDefault().hash(PASSWORD);
+            con.setAutoCommit(false);
+            PreparedStatement caregiver = con.prepareStatement(
+                    "INSERT INTO Caregivers (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)");
+            PreparedStatement availability = con.prepareStatement("INSERT INTO Availabilities VALUES (?, ?)");
+            for (int c = 0; c < caregivers; c++) {
+                caregiver.setString(1, caregiverName(c));
+                caregiver.setBytes(2, hashed.getSalt());
+                caregiver.setBytes(3, hashed.getHash());
+                caregiver.setInt(4, hashed.getIterations());
+                caregiver.addBatch();
+                for (int d = 0; d < days; d++) {
+                    availability.setDate(1, Date.valueOf(FIRST_DAY.plusDays(d)));
+                    availability.setString(2, caregiverName(c));
+                    availability.addBatch();
+                }
+                availability.executeBatch();
+            }
+            caregiver.executeBatch();
+
+            PreparedStatement patient = con.prepareStatement(
+                    "INSERT INTO Patient (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)");
+            for (int p = 0; p < patients; p++) {
+                patient.setString(1, patientName(p));
+                patient.setBytes(2, hashed.getSalt());
+                patient.setBytes(3, hashed.getHash());
+                patient.setInt(4, hashed.getIterations());
+                patient.addBatch();
+                if (p % 1000 == 999) {
+                    patient.executeBatch();
+                }
+            }
+            patient.executeBatch();
+
+            PreparedStatement vaccine = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)");
+            vaccine.setString(1, VACCINE);
+            vaccine.setInt(2, Integer.MAX_VALUE / 2);
+            vaccine.executeUpdate();
+            con.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static String caregiverName(int i) {
+        return "caregiver" + i;
+    }
+
+    public static String patientName(int i) {
+        return "patient" + i;
+    }
+}
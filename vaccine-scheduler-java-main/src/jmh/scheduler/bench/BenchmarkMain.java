@@ -0,0 +1,31 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON (jmh-results.json unless -rff says otherwise), so runs
+ * from different releases can be compared. Accepts the usual JMH command line options, e.g. a regex to pick
+ * benchmarks.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("jmh-results.json");
+        }
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include("scheduler\\.bench\\..*");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password checking, tokenization and dispatch of commands that are rejected before reaching the database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandBenchmark {
+    @Param({"Bench#Pass1", "short", "alllowercaseandlong"})
+    public String password;
+
+    private Session session;
+
+    @Setup
+    public void setup() {
+        session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Benchmark
+    public boolean checkPasswordIllegal() {
+        return Scheduler.checkPasswordIllegal(password);
+    }
+
+    @Benchmark
+    public String[] tokenize() {
+        return Scheduler.tokenize("reserve 2030-01-01 Pfizer");
+    }
+
+    @Benchmark
+    public boolean dispatchInvalidOperation() throws SQLException {
+        return Scheduler.execute(session, "no_such_command a b");
+    }
+
+    // the last branch of the dispatch chain, rejected because nobody is logged in
+    @Benchmark
+    public boolean dispatchLogout() throws SQLException {
+        return Scheduler.execute(session, "logout");
+    }
+}
@@ -0,0 +1,117 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Whole commands through Scheduler.execute against an embedded H2 database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EndToEndBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"200"})
+        public int caregivers;
+
+        @Param({"365"})
+        public int days;
+
+        @Param({"100000"})
+        public int patients;
+
+        private final AtomicInteger newPatients = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() throws SQLException, IOException {
+            BenchDatabase.create("e2e" + System.nanoTime(), caregivers, days, patients);
+            Scheduler.startServices();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Scheduler.stopServices();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class User {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private Session session;
+        private String patient;
+
+        @Setup(Level.Trial)
+        public void setup(Database db) throws SQLException {
+            patient = BenchDatabase.patientName(ThreadLocalRandom.current().nextInt(db.patients));
+            session = new Session(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+            Scheduler.execute(session, "login_patient " + patient + " " + BenchDatabase.PASSWORD);
+        }
+
+        private String output() {
+            String out = buffer.toString(StandardCharsets.UTF_8);
+            buffer.reset();
+            return out;
+        }
+    }
+
+    private static String someDay(Database db) {
+        return BenchDatabase.FIRST_DAY.plusDays(ThreadLocalRandom.current().nextInt(db.days)).toString();
+    }
+
+    @Benchmark
+    public boolean createPatient(Database db, User user) throws SQLException {
+        Session fresh = new Session(user.session.getOut());
+        return Scheduler.execute(fresh, "create_patient bench" + db.newPatients.incrementAndGet() + "x "
+                + BenchDatabase.PASSWORD);
+    }
+
+    @Benchmark
+    public boolean loginPatient(Database db, User user) throws SQLException {
+        Session fresh = new Session(user.session.getOut());
+        return Scheduler.execute(fresh, "login_patient " + user.patient + " " + BenchDatabase.PASSWORD);
+    }
+
+    // reserve and give the slot straight back, so the dataset does not drain over the run
+    @Benchmark
+    public boolean reserveThenCancel(Database db, User user) throws SQLException {
+        user.output();
+        Scheduler.execute(user.session, "reserve " + someDay(db) + " " + BenchDatabase.VACCINE);
+        String out = user.output();
+        int at = out.indexOf("Appointment ID: ");
+        if (at < 0) {
+            return false;
+        }
+        String id = out.substring(at + 16, out.indexOf('\n', at)).trim();
+        return Scheduler.execute(user.session, "cancel " + id);
+    }
+
+    @Benchmark
+    public boolean showAppointments(User user) throws SQLException {
+        return Scheduler.execute(user.session, "show_appointments");
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule(Database db, User user) throws SQLException {
+        return Scheduler.execute(user.session, "search_caregiver_schedule " + someDay(db));
+    }
+}
@@ -0,0 +1,193 @@
+package scheduler.bench;
+
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the journal recovers from a damaged tail: it writes records, corrupts the segment the way a crash
+ * or a bad disk would, reopens it and verifies that
+ *   - a record cut off in the middle (truncated file) and everything after it are dropped,
+ *   - a record whose CRC does not match and everything after it are dropped,
+ *   - every record before the damage is replayed unchanged,
+ *   - the next append reuses the sequence number of the first dropped record and is read back after the others.
+ * Needs nothing but the main classes. The exit code is 1 if any check fails.
+ *
+ * Usage: JournalRecoveryCheck [--records n]
+ */
+public class JournalRecoveryCheck {
+    private static final int SEGMENT_BYTES = 1 << 20;
+    // where the frames of a segment start, after its magic and version
+    private static final int HEADER_BYTES = 8;
+
+    private int records = 100;
+    private final List<JournalRecord> written = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        JournalRecoveryCheck check = new JournalRecoveryCheck();
+        if (args.length == 2 && args[0].equals("--records")) {
+            check.records = Integer.parseInt(args[1]);
+        }
+        boolean ok = check.run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run() throws IOException {
+        if (records < 4) {
+            throw new IllegalArgumentException("--records must be at least 4");
+        }
+        Path dir = Files.createTempDirectory("journal-check");
+        try {
+            Journal journal = open(dir);
+            long outOfOrder = 0;
+            for (int i = 0; i < records; i++) {
+                JournalRecord record = record(i);
+                if (journal.append(record) != i + 1) {
+                    outOfOrder++;
+                }
+                written.add(record);
+            }
+            journal.close();
+            boolean ok = verify(outOfOrder == 0, "appends numbered in order", outOfOrder + " out of order");
+            ok &= recover(dir, records * 9 / 10, true, "torn tail");
+            ok &= recover(dir, records / 2, false, "flipped CRC");
+            return ok;
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // damages the frame of record `damaged` (1-based), then reopens, replays and appends once
+    private boolean recover(Path dir, int damaged, boolean truncate, String name) throws IOException {
+        Path segment = segment(dir);
+        long frame = frameOffsets(segment).get(damaged - 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (truncate) {
+                // length and CRC are there, the body is cut short
+                channel.truncate(frame + 8 + 3);
+            } else {
+                ByteBuffer crc = ByteBuffer.allocate(1);
+                channel.read(crc, frame + 4);
+                crc.put(0, (byte) ~crc.get(0)).rewind();
+                channel.write(crc, frame + 4);
+            }
+        }
+
+        boolean ok = true;
+        Journal journal = open(dir);
+        List<JournalRecord> replayed = new ArrayList<>();
+        long last = journal.replay(1, replayed::add);
+        ok &= verify(last == damaged - 1 && same(replayed, written.subList(0, damaged - 1)),
+                name + ": records before the damage replayed", "last " + last + ", " + replayed.size() + " records");
+        ok &= verify(journal.getNextSequence() == damaged, name + ": next sequence is the damaged record's",
+                "next " + journal.getNextSequence());
+        JournalRecord extra = JournalRecord.dosesAdded("after-" + name.replace(' ', '-'), damaged);
+        long sequence = journal.append(extra);
+        journal.close();
+        ok &= verify(sequence == damaged, name + ": next append takes the damaged record's sequence",
+                "got " + sequence);
+
+        written.subList(damaged - 1, written.size()).clear();
+        written.add(extra);
+        List<JournalRecord> reread = new ArrayList<>();
+        last = Journal.read(dir, 1, reread::add);
+        ok &= verify(last == damaged && same(reread, written), name + ": new append read back after the others",
+                "last " + last + ", " + reread.size() + " records");
+        return ok;
+    }
+
+    private static Journal open(Path dir) throws IOException {
+        return Journal.open(dir, SEGMENT_BYTES, true, 1);
+    }
+
+    private static JournalRecord record(int i) {
+        Date date = Date.valueOf(LocalDate.of(2026, 1, 1).plusDays(i % 365));
+        switch (i % 4) {
+            case 0:
+                return JournalRecord.availabilityUploaded("caregiver" + i, date);
+            case 1:
+                return JournalRecord.reserved(i, "patient" + i, "caregiver" + (i - 1), "Pfizer", date);
+            case 2:
+                return JournalRecord.canceled(i - 1, "patient" + (i - 1), "caregiver" + (i - 2), "Pfizer", date);
+            default:
+                return JournalRecord.dosesAdded("Moderna", i);
+        }
+    }
+
+    // compares content only; written records carry no sequence number or timestamp
+    private static boolean same(List<JournalRecord> actual, List<JournalRecord> expected) {
+        if (actual.size() != expected.size()) {
+            return false;
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            JournalRecord a = actual.get(i);
+            JournalRecord e = expected.get(i);
+            if (a.getSequence() != i + 1 || a.getType() != e.getType() || a.getAppointmentId() != e.getAppointmentId()
+                    || a.getDoses() != e.getDoses() || !equal(a.getPatient(), e.getPatient())
+                    || !equal(a.getCaregiver(), e.getCaregiver()) || !equal(a.getVaccine(), e.getVaccine())
+                    || !equal(a.getDate(), e.getDate())) {
+                System.out.println("  record " + (i + 1) + ": " + a);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Path segment(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        if (files.size() != 1) {
+            throw new IOException("Expected one segment, found " + files.size());
+        }
+        return files.get(0);
+    }
+
+    // the offset of every intact frame (int length | int crc32 | body) in the segment
+    private static List<Long> frameOffsets(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Long> offsets = new ArrayList<>();
+        int position = HEADER_BYTES;
+        while (position + 8 <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0) {
+                break;
+            }
+            offsets.add((long) position);
+            position += 8 + length;
+        }
+        return offsets;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static boolean verify(boolean holds, String invariant, String detail) {
+        System.out.println((holds ? "PASS " : "FAIL ") + invariant + (holds ? "" : ": " + detail));
+        return holds;
+    }
+}
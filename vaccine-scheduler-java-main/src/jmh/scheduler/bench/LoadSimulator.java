@@ -0,0 +1,368 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.metrics.LatencyHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives many synthetic patients concurrently through Scheduler.execute against an embedded H2 database, then
+ * checks that the reservation workflow kept the data consistent.
+ *
+ * Every worker thread plays one front desk: it logs in as random patients and runs a weighted mix of commands
+ * until the operation budget is used up. Doses start scarce by default, so reserve contends on both caregivers
+ * and doses the way it does right after a new batch is announced. While the run is going a sampler watches the
+ * dose count; afterwards the checker verifies that
+ *   - no caregiver has two appointments on the same day,
+ *   - the dose count never went negative and doses are conserved (initial = current + appointments),
+ *   - every appointment consumed its availability (none is still listed) and availabilities are conserved
+ *     (initial = current + appointments).
+ * The exit code is 1 if any check fails.
+ *
+ * Usage: LoadSimulator [--threads n] [--operations n] [--patients n] [--caregivers n] [--days n] [--doses n]
+ *                      [--mix create:5,login:15,reserve:40,cancel:15,show:15,search:10] [--seed n]
+ */
+public class LoadSimulator {
+
+    enum Operation {
+        CREATE, LOGIN, RESERVE, CANCEL, SHOW, SEARCH
+    }
+
+    private int threads = 64;
+    private int operations = 50_000;
+    private int patients = 5_000;
+    private int caregivers = 500;
+    private int days = 30;
+    private int doses = -1;
+    private long seed = 42;
+    private final Map<Operation, Integer> mix = new LinkedHashMap<>();
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger newPatients = new AtomicInteger();
+    private final LongAdder booked = new LongAdder();
+    private final LongAdder noCaregiver = new LongAdder();
+    private final LongAdder noDose = new LongAdder();
+    private final LongAdder canceled = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong lowestDoses = new AtomicLong(Long.MAX_VALUE);
+    private final Map<String, Queue<String>> appointments = new ConcurrentHashMap<>();
+
+    private LoadSimulator() {
+        mix.put(Operation.CREATE, 5);
+        mix.put(Operation.LOGIN, 15);
+        mix.put(Operation.RESERVE, 40);
+        mix.put(Operation.CANCEL, 15);
+        mix.put(Operation.SHOW, 15);
+        mix.put(Operation.SEARCH, 10);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSimulator simulator = new LoadSimulator();
+        simulator.parse(args);
+        boolean ok = simulator.run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--operations":
+                    operations = Integer.parseInt(value);
+                    break;
+                case "--patients":
+                    patients = Integer.parseInt(value);
+                    break;
+                case "--caregivers":
+                    caregivers = Integer.parseInt(value);
+                    break;
+                case "--days":
+                    days = Integer.parseInt(value);
+                    break;
+                case "--doses":
+                    doses = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--mix":
+                    mix.clear();
+                    for (String part : value.split(",")) {
+                        String[] weight = part.split(":");
+                        mix.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (doses < 0) {
+            // half as many doses as slots, so both the dose and the caregiver path run out
+            doses = caregivers * days / 2;
+        }
+    }
+
+    private boolean run() throws SQLException, IOException, InterruptedException {
+        System.out.println("Loading " + caregivers + " caregivers x " + days + " days, " + patients + " patients, "
+                + doses + " doses");
+        BenchDatabase.create("load" + System.nanoTime(), caregivers, days, patients);
+        execute("UPDATE Vaccines SET Doses = " + doses);
+        Scheduler.startServices();
+
+        remaining.set(operations);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long workerSeed = seed + t;
+            Thread worker = new Thread(() -> {
+                try {
+                    work(new Random(workerSeed));
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + t);
+            workers.add(worker);
+        }
+        Thread sampler = new Thread(() -> {
+            while (done.getCount() > 0) {
+                sampleDoses();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "load-sampler");
+        sampler.setDaemon(true);
+
+        long start = System.nanoTime();
+        sampler.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.interrupt();
+        // a write-behind inventory must be flushed for the checks to see every dose taken
+        VaccineInventory.getDefault().flush();
+
+        report(seconds);
+        boolean ok = check();
+        Scheduler.stopServices();
+        return ok;
+    }
+
+    private void work(Random random) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        while (remaining.getAndDecrement() > 0) {
+            int pick = random.nextInt(totalWeight);
+            Operation operation = null;
+            for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+                pick -= entry.getValue();
+                if (pick < 0) {
+                    operation = entry.getKey();
+                    break;
+                }
+            }
+            if (session.getPatient() == null && operation != Operation.CREATE && operation != Operation.LOGIN
+                    && operation != Operation.SEARCH) {
+                run(session, buffer, Operation.LOGIN, random);
+            }
+            if (session.getPatient() == null && (operation == Operation.RESERVE || operation == Operation.CANCEL)) {
+                failures.increment();
+                continue;
+            }
+            run(session, buffer, operation, random);
+        }
+    }
+
+    private void run(Session session, ByteArrayOutputStream buffer, Operation operation, Random random) {
+        String command;
+        switch (operation) {
+            case CREATE:
+                command = "create_patient load" + newPatients.incrementAndGet() + " " + BenchDatabase.PASSWORD;
+                break;
+            case LOGIN:
+                if (session.getPatient() != null) {
+                    execute(session, buffer, "logout");
+                }
+                command = "login_patient " + BenchDatabase.patientName(random.nextInt(patients)) + " "
+                        + BenchDatabase.PASSWORD;
+                break;
+            case RESERVE:
+                command = "reserve " + randomDay(random) + " " + BenchDatabase.VACCINE;
+                break;
+            case CANCEL:
+                Queue<String> own = appointments.get(session.getPatient().getUsername());
+                String id = own == null ? null : own.poll();
+                if (id == null) {
+                    // nothing to cancel for this patient, book instead so cancels find work later
+                    operation = Operation.RESERVE;
+                    command = "reserve " + randomDay(random) + " " + BenchDatabase.VACCINE;
+                } else {
+                    command = "cancel " + id;
+                }
+                break;
+            case SHOW:
+                command = "show_appointments";
+                break;
+            default:
+                command = "search_caregiver_schedule " + randomDay(random);
+                break;
+        }
+        long start = System.nanoTime();
+        String output = execute(session, buffer, command);
+        long nanos = System.nanoTime() - start;
+        latencies.get(operation).record(nanos);
+        overall.record(nanos);
+
+        if (operation == Operation.RESERVE) {
+            if (output.startsWith("Appointment ID: ")) {
+                booked.increment();
+                String appointment = output.substring(16, output.indexOf('\n')).trim();
+                appointments.computeIfAbsent(session.getPatient().getUsername(), k -> new ConcurrentLinkedQueue<>())
+                        .add(appointment);
+            } else if (output.startsWith("No available caregiver")) {
+                noCaregiver.increment();
+            } else if (output.startsWith("No available vaccine")) {
+                noDose.increment();
+            } else {
+                failures.increment();
+            }
+        } else if (operation == Operation.CANCEL) {
+            if (output.startsWith("Canceled successfully")) {
+                canceled.increment();
+            } else {
+                failures.increment();
+            }
+        }
+    }
+
+    private String execute(Session session, ByteArrayOutputStream buffer, String command) {
+        buffer.reset();
+        try {
+            Scheduler.execute(session, command);
+        } catch (SQLException | RuntimeException e) {
+            failures.increment();
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private String randomDay(Random random) {
+        return BenchDatabase.FIRST_DAY.plusDays(random.nextInt(days)).toString();
+    }
+
+    private void sampleDoses() {
+        try {
+            long current = queryLong("SELECT MIN(Doses) FROM Vaccines");
+            lowestDoses.accumulateAndGet(current, Math::min);
+        } catch (SQLException e) {
+            // a missed sample only weakens the check
+        }
+    }
+
+    private void report(double seconds) {
+        System.out.printf("%d operations on %d threads in %.2fs: %.0f ops/s%n", overall.getCount(), threads, seconds,
+                overall.getCount() / seconds);
+        System.out.printf("%-8s %9s %10s %10s %10s %10s%n", "op", "count", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            printLatency(entry.getKey().name().toLowerCase(), entry.getValue());
+        }
+        printLatency("all", overall);
+        System.out.println("reserve: " + booked.sum() + " booked, " + noCaregiver.sum() + " no caregiver, "
+                + noDose.sum() + " no dose; " + canceled.sum() + " canceled; " + failures.sum() + " failures");
+    }
+
+    private static void printLatency(String name, LatencyHistogram histogram) {
+        System.out.printf("%-8s %9d %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getCount(),
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6,
+                histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    private boolean check() throws SQLException {
+        boolean ok = true;
+        long appointmentCount = queryLong("SELECT COUNT(*) FROM Appointment");
+
+        long doubleBooked = queryLong("SELECT COUNT(*) FROM (SELECT Caregiver, Time FROM Appointment "
+                + "GROUP BY Caregiver, Time HAVING COUNT(*) > 1) D");
+        ok &= verify(doubleBooked == 0, "no caregiver booked twice on a date", doubleBooked + " double bookings");
+
+        long negative = queryLong("SELECT COUNT(*) FROM Vaccines WHERE Doses < 0");
+        long lowest = Math.min(lowestDoses.get(), queryLong("SELECT MIN(Doses) FROM Vaccines"));
+        ok &= verify(negative == 0 && lowest >= 0, "dose counts never negative", "lowest seen " + lowest);
+        long currentDoses = queryLong("SELECT Doses FROM Vaccines WHERE Name = '" + BenchDatabase.VACCINE + "'");
+        ok &= verify(currentDoses + appointmentCount == doses, "doses conserved",
+                doses + " initial != " + currentDoses + " left + " + appointmentCount + " booked");
+
+        long stillAvailable = queryLong("SELECT COUNT(*) FROM Appointment A JOIN Availabilities V "
+                + "ON V.Username = A.Caregiver AND V.Time = A.Time");
+        ok &= verify(stillAvailable == 0, "every appointment consumed its availability",
+                stillAvailable + " appointments whose availability is still listed");
+        long availabilities = queryLong("SELECT COUNT(*) FROM Availabilities");
+        long seeded = (long) caregivers * days;
+        ok &= verify(availabilities + appointmentCount == seeded, "availabilities conserved",
+                seeded + " initial != " + availabilities + " left + " + appointmentCount + " booked");
+        return ok;
+    }
+
+    private static boolean verify(boolean holds, String invariant, String detail) {
+        System.out.println((holds ? "PASS " : "FAIL ") + invariant + (holds ? "" : ": " + detail));
+        return holds;
+    }
+
+    private static long queryLong(String sql) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(sql);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            con.createStatement().executeUpdate(sql);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import scheduler.util.Util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UtilBenchmark {
+    private byte[] salt;
+    private byte[] padded;
+
+    @Setup
+    public void setup() {
+        salt = Util.generateSalt();
+        // the shape Util.trim sees when reading a BINARY(16) hash column
+        padded = Arrays.copyOf(Util.generateHash(BenchDatabase.PASSWORD, salt), 16);
+    }
+
+    @Benchmark
+    public byte[] generateSalt() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(BenchDatabase.PASSWORD, salt);
+    }
+
+    @Benchmark
+    public byte[] trim() {
+        return Util.trim(padded);
+    }
+}
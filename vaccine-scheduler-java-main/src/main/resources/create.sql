@@ -2,6 +2,7 @@ CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
+    Iterations int NOT NULL DEFAULT 10,
     PRIMARY KEY (Username)
 );
 
@@ -20,7 +21,8 @@ CREATE TABLE Vaccines (
 CREATE TABLE Patient (
     Username varchar(255) primary key,
     Salt binary(16),
-    Hash binary(16)
+    Hash binary(16),
+    Iterations int NOT NULL DEFAULT 10
 );
 
 CREATE TABLE Appointment (
@@ -29,4 +31,42 @@ CREATE TABLE Appointment (
     Caregiver varchar (255) REFERENCES Caregivers,
     Vaccine varchar(255) REFERENCES Vaccines,
     Time date
-);
\ No newline at end of file
+);
+
+-- Appointment ids come from scheduler.db.IdAllocator instead of scanning Appointment.
+-- AppointmentIdSeq hands out one id per NEXT VALUE (-Dscheduler.id.allocator=sequence);
+-- AppointmentIdBlockSeq hands out blocks of ids for HiLoIdAllocator, so its increment must
+-- equal HiLoIdAllocator.DEFAULT_BLOCK_SIZE. Only one of the two should be used on a database.
+CREATE SEQUENCE AppointmentIdSeq AS int START WITH 0 INCREMENT BY 1;
+
+CREATE SEQUENCE AppointmentIdBlockSeq AS int START WITH 0 INCREMENT BY 64;
+
+-- Patients waiting for any day in [FromDate, ToDate]; booked by scheduler.service.MatchingEngine
+CREATE TABLE Waitlist (
+    Id int PRIMARY KEY,
+    Patient varchar(255) REFERENCES Patient,
+    Vaccine varchar(255),
+    FromDate date,
+    ToDate date,
+    Priority int NOT NULL DEFAULT 0,
+    JoinedAt datetime
+);
+
+CREATE SEQUENCE WaitlistIdSeq AS int START WITH 1 INCREMENT BY 1;
+
+-- One row per scheduler process that reads from a replica; scheduler.db.ReplicaRouter measures
+-- replica lag by writing Beat here on the primary and reading it back from the replica
+CREATE TABLE ReplicaHeartbeat (
+    Source bigint PRIMARY KEY,
+    Beat bigint NOT NULL
+);
+
+-- The last committed line of each named bulk import; written in the same transaction as the
+-- import's batch by scheduler.importer.BulkImporter
+CREATE TABLE ImportCheckpoint (
+    Name varchar(255) PRIMARY KEY,
+    Line bigint NOT NULL
+);
+
+-- Indexes and later schema changes are applied by scheduler.db.Migrations when the scheduler
+-- starts (or with --migrate) and recorded in the SchemaVersion table.
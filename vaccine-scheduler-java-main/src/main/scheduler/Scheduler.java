@@ -1,46 +1,193 @@
 package scheduler;
 
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.Snapshot;
+import scheduler.cache.VaccineInventory;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Migrations;
+import scheduler.db.QueryPlans;
+import scheduler.db.ReplicaRouter;
+import scheduler.db.UnitOfWork;
+import scheduler.importer.BulkImporter;
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+import scheduler.journal.LoadReplayer;
+import scheduler.metrics.HasherStatsMBean;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.ReservationStatsMBean;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
-import scheduler.model.Vaccine;
-import scheduler.util.Util;
+import scheduler.script.ScriptRunner;
+import scheduler.service.AsyncRepository;
+import scheduler.service.MatchingEngine;
+import scheduler.service.ReservationEngine;
+import scheduler.service.ReservationResult;
+import scheduler.service.Waitlist;
+import scheduler.server.SchedulerServer;
+import scheduler.util.PasswordHasher;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final ReservationEngine reservationEngine = new ReservationEngine();
+
+    private static final int MAX_AVAILABILITY_RANGE_DAYS = 366;
+
+    // commands that may change the logged-in user's data; the user's next reads must see the change
+    private static final Set<String> WRITE_COMMANDS = Set.of("reserve", "upload_availability",
+            "upload_availability_range", "cancel", "add_doses", "join_waitlist", "leave_waitlist");
+
+    private static final Set<String> COMMANDS = Set.of("create_patient", "create_caregiver", "login_patient",
+            "login_caregiver", "resume", "search_caregiver_schedule", "reserve", "upload_availability",
+            "upload_availability_range", "cancel", "add_doses", "show_appointments", "join_waitlist", "leave_waitlist",
+            "show_waitlist", "stats", "logout", "quit");
+
+    // show_appointments pages
+    private static final int DEFAULT_APPOINTMENT_PAGE = 50;
+    private static final int MAX_APPOINTMENT_PAGE = 1000;
+    private static final int APPOINTMENT_FETCH_SIZE = 100;
 
     public static void main(String[] args) throws SQLException {
+        // bulk import mode: --import <caregivers|patients|vaccines|availabilities> <file.csv> [checkpoint_name]
+        if (args.length > 0 && args[0].equals("--import")) {
+            try {
+                BulkImporter.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.out.println("Import failed: " + e.getMessage());
+            }
+            return;
+        }
+
+        // migration mode: --migrate [--explain], printing the query plans before and after with --explain
+        if (args.length > 0 && args[0].equals("--migrate")) {
+            boolean explain = args.length > 1 && args[1].equals("--explain");
+            try {
+                if (explain) {
+                    System.out.println("Query plans before migrating:");
+                    QueryPlans.print(System.out);
+                }
+                int applied = Migrations.migrate();
+                System.out.println("Applied " + applied + " migration(s), schema is at version "
+                        + Migrations.getLatestVersion());
+                if (explain) {
+                    System.out.println("Query plans after migrating:");
+                    QueryPlans.print(System.out);
+                }
+            } catch (SQLException e) {
+                System.out.println("Migration failed: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                ConnectionManager.shutdown();
+            }
+            return;
+        }
+
+        // audit mode: --journal [dir] [from_sequence] prints the journal without touching the database
+        if (args.length > 0 && args[0].equals("--journal")) {
+            Path dir = Paths.get(args.length > 1 ? args[1] : System.getProperty("scheduler.journal.dir", "journal"));
+            long from = args.length > 2 ? Long.parseLong(args[2]) : 1;
+            try {
+                long last = Journal.read(dir, from, System.out::println);
+                System.out.println(last < from ? "No journal records" : "Last sequence: " + last);
+            } catch (IOException e) {
+                System.out.println("Could not read the journal: " + e.getMessage());
+            }
+            return;
+        }
+
+        // snapshot mode: --snapshot [file] loads the tables and writes them to a snapshot for the next start
+        if (args.length > 0 && args[0].equals("--snapshot")) {
+            Path file = Paths.get(args.length > 1 ? args[1]
+                    : System.getProperty("scheduler.snapshot.file", "snapshot.bin"));
+            try {
+                AvailabilityIndex.getDefault().start(0);
+                CaregiverLoad.getDefault().load();
+                Snapshot snapshot = Snapshot.capture();
+                snapshot.write(file);
+                System.out.println("Wrote " + snapshot + " to " + file);
+            } catch (SQLException | IOException e) {
+                System.out.println("Could not write the snapshot: " + e.getMessage());
+            } finally {
+                ConnectionManager.shutdown();
+            }
+            return;
+        }
+
+        startServices();
+
+        // script mode: --script [file|-] [output_file], reading stdin when there is no file or it is -
+        if (args.length > 0 && args[0].equals("--script")) {
+            PrintStream output = null;
+            try {
+                BufferedReader input = args.length < 2 || args[1].equals("-")
+                        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                        : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8);
+                ScriptRunner.RunnerBuilder builder = new ScriptRunner.RunnerBuilder(input);
+                if (args.length > 2) {
+                    output = new PrintStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(args[2]))),
+                            false, StandardCharsets.UTF_8);
+                    builder.output(output);
+                }
+                ScriptRunner runner = builder.build();
+                runner.run();
+                // results may be on stdout, so the summary goes to stderr
+                System.err.println(runner.summary());
+            } catch (IOException e) {
+                System.out.println("Script failed: " + e.getMessage());
+            } finally {
+                if (output != null) {
+                    output.close();
+                }
+                stopServices();
+            }
+            return;
+        }
+
+        // server mode: --server [port], one session per TCP connection
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : SchedulerServer.DEFAULT_PORT;
+            try {
+                SchedulerServer server = new SchedulerServer.ServerBuilder(port).build();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.shutdown();
+                    stopServices();
+                }));
+                server.serve();
+            } catch (IOException e) {
+                System.out.println("Server failed: " + e.getMessage());
+                stopServices();
+            }
+            return;
+        }
+
         // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        Session session = new Session(System.out);
+        printGreeting(session);
 
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
@@ -52,71 +199,281 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (response == null) {
+                // end of input behaves like quit
+                response = "quit";
+            }
+            if (!execute(session, response)) {
+                stopServices();
                 return;
+            }
+        }
+    }
+
+    // bring the schema up to date, then load the in-memory availability index and vaccine inventory;
+    // commands fall back to the database if loading fails
+    public static void startServices() {
+        // -Dscheduler.metrics.dumpFile=<path> writes the stats report there every scheduler.metrics.dumpSeconds
+        String dumpFile = System.getProperty("scheduler.metrics.dumpFile");
+        Metrics.getDefault().start(dumpFile == null ? null : Paths.get(dumpFile),
+                Long.getLong("scheduler.metrics.dumpSeconds", 60));
+        // reported by stats and the dump file, and registered as MBeans
+        Metrics.getDefault().expose("ReservationEngine", reservationEngine, ReservationStatsMBean.class);
+        Metrics.getDefault().expose("PasswordHasher", PasswordHasher.getDefault(), HasherStatsMBean.class);
+        if (Boolean.parseBoolean(System.getProperty("scheduler.migrate", "true"))) {
+            try {
+                Migrations.migrate();
+            } catch (SQLException e) {
+                System.out.println("Could not migrate the schema: " + e.getMessage());
+            }
+        }
+        // -Dscheduler.db.readUrl=<replica url> sends read-only commands to a replica while it keeps up
+        if (ConnectionManager.hasReadPool()) {
+            ReplicaRouter.getDefault().start(Long.getLong("scheduler.replica.maxLagMillis", 5000),
+                    Long.getLong("scheduler.replica.heartbeatMillis", 1000));
+        }
+        // -Dscheduler.snapshot.file=<path> starts from the snapshot there and catches up from the database
+        // in the background
+        Snapshot snapshot = null;
+        String snapshotFile = System.getProperty("scheduler.snapshot.file");
+        if (snapshotFile != null && Files.exists(Paths.get(snapshotFile))) {
+            try {
+                snapshot = Snapshot.read(Paths.get(snapshotFile));
+            } catch (IOException e) {
+                System.out.println("Could not read the snapshot, loading from the database: " + e.getMessage());
+            }
+        }
+        long resyncSeconds = Long.getLong("scheduler.index.resyncSeconds", 60);
+        if (snapshot != null) {
+            AvailabilityIndex.getDefault().start(snapshot, resyncSeconds);
+        } else {
+            try {
+                AvailabilityIndex.getDefault().start(resyncSeconds);
+            } catch (SQLException e) {
+                System.out.println("Could not load availabilities, searching the database instead");
+            }
+        }
+        // -Dscheduler.journal.enabled=true appends every committed change to the journal in scheduler.journal.dir
+        if (Boolean.parseBoolean(System.getProperty("scheduler.journal.enabled", "false"))) {
+            try {
+                Journal.setDefault(Journal.open(Paths.get(System.getProperty("scheduler.journal.dir", "journal")),
+                        Integer.getInteger("scheduler.journal.segmentMB", 64) << 20,
+                        Boolean.parseBoolean(System.getProperty("scheduler.journal.sync", "true")),
+                        Long.getLong("scheduler.journal.groupCommitMillis", 1)));
+            } catch (IOException e) {
+                System.out.println("Could not open the journal, running without it: " + e.getMessage());
+            }
+        }
+        try {
+            // the load only steers caregiver choice, so a journal that covers every booking can stand in for the
+            // table; -Dscheduler.journal.rebuildLoad=true counts bookings from the journal instead of querying
+            if (snapshot != null) {
+                CaregiverLoad.getDefault().load(snapshot);
+            } else if (Journal.getDefault() != null
+                    && Boolean.parseBoolean(System.getProperty("scheduler.journal.rebuildLoad", "false"))) {
+                Journal.getDefault().replay(1, new LoadReplayer());
             } else {
-                System.out.println("Invalid operation name!");
+                CaregiverLoad.getDefault().load();
             }
+        } catch (SQLException | IOException e) {
+            System.out.println("Could not load caregiver bookings, assigning caregivers without them");
+        }
+        try {
+            VaccineInventory.getDefault().start(
+                    VaccineInventory.Durability.valueOf(
+                            System.getProperty("scheduler.inventory.durability", "write_through").toUpperCase()),
+                    Long.getLong("scheduler.inventory.flushMillis", 1000));
+        } catch (SQLException e) {
+            if (snapshot != null && !VaccineInventory.getDefault().isLoaded()
+                    && System.getProperty("scheduler.inventory.durability", "write_through")
+                    .equalsIgnoreCase("write_through")) {
+                VaccineInventory.getDefault().start(snapshot);
+                System.out.println("Could not load vaccines, showing the doses of the snapshot");
+            } else {
+                System.out.println("Could not load vaccines, reading the database instead");
+            }
+        }
+        if (snapshotFile != null) {
+            Snapshot.startWriting(Paths.get(snapshotFile), Long.getLong("scheduler.snapshot.everySeconds", 300));
         }
+        // -Dscheduler.waitlist.enabled=false leaves booking waitlisted patients to another scheduler process
+        if (Boolean.parseBoolean(System.getProperty("scheduler.waitlist.enabled", "true"))) {
+            MatchingEngine.getDefault().start(
+                    MatchingEngine.Order.valueOf(System.getProperty("scheduler.waitlist.order", "fifo").toUpperCase()),
+                    Integer.getInteger("scheduler.waitlist.batchSize", 500),
+                    Long.getLong("scheduler.waitlist.lingerMillis", 50),
+                    Long.getLong("scheduler.waitlist.sweepSeconds", 60) * 1000);
+        }
+    }
+
+    public static void stopServices() {
+        MatchingEngine.getDefault().stop();
+        Metrics.getDefault().stop();
+        Snapshot.stopWriting();
+        String snapshotFile = System.getProperty("scheduler.snapshot.file");
+        if (snapshotFile != null && AvailabilityIndex.getDefault().isLoaded()) {
+            try {
+                Snapshot.capture().write(Paths.get(snapshotFile));
+            } catch (SQLException | IOException e) {
+                System.out.println("Could not write the snapshot: " + e.getMessage());
+            }
+        }
+        AvailabilityIndex.getDefault().stop();
+        VaccineInventory.getDefault().stop();
+        ReplicaRouter.getDefault().stop();
+        if (Journal.getDefault() != null) {
+            Journal.getDefault().close();
+            Journal.setDefault(null);
+        }
+        ConnectionManager.shutdown();
+    }
+
+    public static void printGreeting(Session session) {
+        session.println();
+        session.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        session.println("*** Please enter one of the following commands ***");
+        session.println("> create_patient <username> <password>");
+        session.println("> create_caregiver <username> <password>");
+        session.println("> login_patient <username> <password>");
+        session.println("> login_caregiver <username> <password>");
+        session.println("> resume <session_token>");
+        session.println("> search_caregiver_schedule <date>");
+        session.println("> search_caregiver_schedule <from> <to> [vaccine] [--caregivers]");
+        session.println("> reserve <date> <vaccine>");
+        session.println("> upload_availability <date>");
+        session.println("> upload_availability_range <start_date> <end_date> [weekday_mask]");
+        session.println("> cancel <appointment_id>");
+        session.println("> add_doses <vaccine> <number>");
+        session.println("> show_appointments [--after <id>] [--limit <n>] [--from <date>] [--to <date>]");
+        session.println("> join_waitlist <from> <to> <vaccine>");
+        session.println("> leave_waitlist <waitlist_id>");
+        session.println("> show_waitlist");
+        session.println("> stats");
+        session.println("> logout");
+        session.println("> quit");
+        session.println();
+    }
+
+    // split the user input by spaces
+    public static String[] tokenize(String line) {
+        return line.split(" ");
+    }
+
+    /**
+     * Run one command line for the given session. Returns false when the session asked to quit.
+     */
+    public static boolean execute(Session session, String line) throws SQLException {
+        String[] tokens = tokenize(line);
+        // time every command under its own name; anything unrecognised is counted as one
+        String command = tokens.length > 0 && COMMANDS.contains(tokens[0]) ? tokens[0] : "invalid";
+        Metrics.Sample sample = Metrics.getDefault().begin(command);
+        session.takeFailed();
+        boolean error = true;
+        try {
+            boolean keepGoing = dispatch(session, tokens);
+            error = false;
+            return keepGoing;
+        } finally {
+            // handlers report most database errors to the user and return normally
+            sample.end(session.takeFailed() || error);
+            if (WRITE_COMMANDS.contains(command)) {
+                ReplicaRouter.getDefault().markWrite(username(session));
+            }
+        }
+    }
+
+    private static boolean dispatch(Session session, String[] tokens) throws SQLException {
+        // check if input exists
+        if (tokens.length == 0) {
+            session.println("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(session, tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(session, tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(session, tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(session, tokens);
+        } else if (operation.equals("resume")) {
+            resume(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(session, tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(session, tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(session, tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(session, tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(session, tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(session, tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(session, tokens);
+        } else if (operation.equals("logout")) {
+            logout(session, tokens);
+        } else if (operation.equals("join_waitlist")) {
+            joinWaitlist(session, tokens);
+        } else if (operation.equals("leave_waitlist")) {
+            leaveWaitlist(session, tokens);
+        } else if (operation.equals("show_waitlist")) {
+            showWaitlist(session, tokens);
+        } else if (operation.equals("stats")) {
+            stats(session, tokens);
+        } else if (operation.equals("quit")) {
+            session.println("Bye!");
+            return false;
+        } else {
+            session.println("Invalid operation name!");
+        }
+        return true;
+    }
+
+    // the logged-in user's name, or null
+    private static String username(Session session) {
+        if (session.getPatient() != null) {
+            return session.getPatient().getUsername();
+        }
+        return session.getCaregiver() == null ? null : session.getCaregiver().getUsername();
     }
 
-    private static void createPatient(String[] tokens) { // username, password
+    private static void createPatient(Session session, String[] tokens) { // username, password
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             return;
         }
         if (checkPasswordIllegal(tokens[2])){
             String username = tokens[1];
             String password = tokens[2];
-            if (usernameExistsPatient(username)) {
-                System.out.println("Username taken, try again!");
+            // the username check and the key derivation are independent, so they overlap
+            CompletableFuture<Boolean> exists =
+                    AsyncRepository.getDefault().supply(() -> usernameExistsPatient(username));
+            PasswordHasher.Hashed hashed = PasswordHasher.getDefault().hash(password);
+            Boolean taken = usernameTaken(session, exists);
+            if (taken == null) {
+                return;
+            }
+            if (taken) {
+                session.println("Username taken, try again!");
                 return;
             }
-            byte[] salt = Util.generateSalt();
-            byte[] hash = Util.generateHash(password, salt);
             try {
-                currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
-                currentPatient.create();
-                System.out.println("Created user " + username);
+                session.setPatient(new Patient.PatientBuilder(username, hashed.getSalt(), hashed.getHash(),
+                        hashed.getIterations()).build());
+                session.getPatient().create();
+                session.println("Created user " + username);
             } catch (SQLException e) {
-                System.out.println("Failed to create user.");
+                session.println("Failed to create user.");
                 e.printStackTrace();
+                session.markFailed();
             }
         }
         else{
-            System.out.println("Please make sure your password:" +
+            session.println("Please make sure your password:" +
                     "has at least 8 characters"+
                     "contains at least one special character from “!”, “@”, “#”, “?”" +
                     "contains a mixture of letters and characters");
@@ -124,37 +481,56 @@ public class Scheduler {
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        // check 2: check if the username has been taken already, while the password is hashed
+        CompletableFuture<Boolean> exists =
+                AsyncRepository.getDefault().supply(() -> usernameExistsCaregiver(username));
+        PasswordHasher.Hashed hashed = PasswordHasher.getDefault().hash(password);
+        Boolean taken = usernameTaken(session, exists);
+        if (taken == null) {
+            return;
+        }
+        if (taken) {
+            session.println("Username taken, try again!");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            session.setCaregiver(new Caregiver.CaregiverBuilder(username, hashed.getSalt(), hashed.getHash(),
+                    hashed.getIterations()).build());
             // save to caregiver information to our database
-            currentCaregiver.saveToDB();
-            System.out.println("Created user " + username);
+            session.getCaregiver().saveToDB();
+            session.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             e.printStackTrace();
+            session.markFailed();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
+    // null when the check could not complete; the error has been reported then
+    private static Boolean usernameTaken(Session session, CompletableFuture<Boolean> exists) {
+        try {
+            return AsyncRepository.await(exists);
+        } catch (SQLException e) {
+            session.println("Error occurred when checking username");
+            e.printStackTrace();
+            session.markFailed();
+            return null;
+        }
+    }
+
+    private static boolean usernameExistsCaregiver(String username) throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        Connection con = cm.createReadConnection(null);
 
         String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
         try {
@@ -163,18 +539,14 @@ public class Scheduler {
             ResultSet resultSet = statement.executeQuery();
             // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
             return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
         } finally {
             cm.closeConnection();
         }
-        return true;
     }
 
-    private static boolean usernameExistsPatient(String username) {
+    private static boolean usernameExistsPatient(String username) throws SQLException {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        Connection con = cm.createReadConnection(null);
 
         String selectUsername = "SELECT * FROM Patient WHERE Username = ?";
         try {
@@ -182,22 +554,18 @@ public class Scheduler {
             statement.setString(1, username);
             ResultSet resultSet = statement.executeQuery();
             return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
         } finally {
             cm.closeConnection();
         }
-        return true;
     }
 
-    private static void loginPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+    private static void loginPatient(Session session, String[] tokens) {
+        if (session.getCaregiver() != null || session.getPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -207,27 +575,29 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
+            session.markFailed();
         }
         if (patient == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            session.println("Logged in as: " + username);
+            session.setPatient(patient);
+            session.println("Session token: " + SessionManager.getDefault().issue(session));
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCaregiver() != null || session.getPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -237,323 +607,631 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
+            session.markFailed();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.println("Logged in as: " + username);
+            session.setCaregiver(caregiver);
+            session.println("Session token: " + SessionManager.getDefault().issue(session));
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) throws SQLException {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void resume(Session session, String[] tokens) {
+        // resume <session_token>
+        if (session.getCaregiver() != null || session.getPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
-        else if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        if (tokens.length != 2) {
+            session.println("Please try again!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String availableCaregivers = "SELECT C.Username FROM Caregivers C, Availabilities A WHERE A.Time = ? AND C.Username = A.Username GROUP BY C.Username ORDER BY C.Username ASC";
-        String availableVaccine = "SELECT * FROM Vaccines";
+        if (!SessionManager.getDefault().resume(session, tokens[1])) {
+            session.println("Session expired, please login again.");
+            return;
+        }
+        String username = session.getPatient() != null ? session.getPatient().getUsername()
+                : session.getCaregiver().getUsername();
+        session.println("Logged in as: " + username);
+    }
+
+    private static void searchCaregiverSchedule(Session session, String[] tokens) throws SQLException {
+        // search_caregiver_schedule <date>
+        // search_caregiver_schedule <from> <to> [vaccine] [--caregivers]
+        if (session.getCaregiver() == null && session.getPatient() == null) {
+            session.println("Please login first!");
+            return;
+        }
+        else if (tokens.length < 2 || tokens.length > 5) {
+            session.println("Please try again!");
+            return;
+        }
+        Date from;
+        Date to;
         try {
-            PreparedStatement statement1 = con.prepareStatement(availableCaregivers);
-            statement1.setString(1, tokens[1]);
-            ResultSet result1 = statement1.executeQuery();
-            if (result1.next()) { // if there is caregiver available, show vaccines
-                System.out.println("Available Caregivers: " + result1.getString(1));
-                PreparedStatement statement2 = con.prepareStatement(availableVaccine);
-                ResultSet result2 = statement2.executeQuery();
-                result2.next();
-                System.out.println("Available Vaccines: " + result2.getString(1));
-                System.out.println("Doses: " + result2.getString(2));
-            }
-            else { // if there is no available caregiver, do not show vaccines
-                System.out.println("No available caregiver!");
+            from = Date.valueOf(tokens[1]);
+            to = tokens.length > 2 ? Date.valueOf(tokens[2]) : from;
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return;
+        }
+        String vaccineName = null;
+        boolean listCaregivers = tokens.length == 2;
+        for (int i = 3; i < tokens.length; i++) {
+            if (tokens[i].equals("--caregivers")) {
+                listCaregivers = true;
+            } else if (vaccineName == null) {
+                vaccineName = tokens[i];
+            } else {
+                session.println("Please try again!");
+                return;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        }
+        long rangeDays = ChronoUnit.DAYS.between(from.toLocalDate(), to.toLocalDate()) + 1;
+        if (rangeDays < 1 || rangeDays > MAX_AVAILABILITY_RANGE_DAYS) {
+            session.println("The date range must be between 1 and " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+            return;
+        }
+
+        // the vaccine stock does not depend on the caregivers, so it is read while they are looked up
+        CompletableFuture<Map<String, Integer>> stock = VaccineInventory.getDefault().isLoaded()
+                ? CompletableFuture.completedFuture(VaccineInventory.getDefault().snapshot())
+                : AsyncRepository.getDefault().getVaccineStock();
+
+        // caregivers per day, from the index or one query over the whole range
+        SortedMap<Date, List<String>> caregivers = new TreeMap<>();
+        SortedMap<Date, Integer> counts = new TreeMap<>();
+        AvailabilityIndex index = AvailabilityIndex.getDefault();
+        if (index.isLoaded()) {
+            caregivers = index.range(from, to);
+            for (Map.Entry<Date, List<String>> day : caregivers.entrySet()) {
+                counts.put(day.getKey(), day.getValue().size());
+            }
+        } else {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createReadConnection(username(session));
+            String availableCaregivers = "SELECT Time, Username FROM Availabilities " +
+                    "WHERE Time BETWEEN ? AND ? ORDER BY Time, Username";
+            String caregiverCounts = "SELECT Time, COUNT(*) FROM Availabilities " +
+                    "WHERE Time BETWEEN ? AND ? GROUP BY Time ORDER BY Time";
+            try {
+                PreparedStatement statement = con.prepareStatement(listCaregivers ? availableCaregivers : caregiverCounts);
+                statement.setDate(1, from);
+                statement.setDate(2, to);
+                ResultSet result = statement.executeQuery();
+                while (result.next()) {
+                    Date day = result.getDate(1);
+                    if (listCaregivers) {
+                        caregivers.computeIfAbsent(day, k -> new ArrayList<>()).add(result.getString(2));
+                        counts.merge(day, 1, Integer::sum);
+                    } else {
+                        counts.put(day, result.getInt(2));
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                throw new SQLException();
+            } finally {
+                cm.closeConnection();
+            }
+        }
+        if (counts.isEmpty()) {
+            // if there is no available caregiver, do not show vaccines
+            stock.cancel(true);
+            session.println("No available caregiver!");
+            return;
+        }
+
+        // current stock is the same for every day, so it is printed once
+        Map<String, Integer> vaccines = AsyncRepository.await(stock);
+        if (vaccineName != null) {
+            Integer doses = vaccines.get(vaccineName);
+            vaccines = new TreeMap<>();
+            if (doses != null) {
+                vaccines.put(vaccineName, doses);
+            }
+        }
+
+        if (tokens.length == 2) {
+            for (String caregiver : caregivers.get(from)) {
+                session.println("Available Caregivers: " + caregiver);
+            }
+        } else {
+            for (Map.Entry<Date, Integer> day : counts.entrySet()) {
+                StringBuilder line = new StringBuilder(day.getKey() + ": " + day.getValue() + " caregiver(s)");
+                if (listCaregivers) {
+                    line.append(" ").append(String.join(", ", caregivers.get(day.getKey())));
+                }
+                session.println(line.toString());
+            }
+        }
+        if (vaccines.isEmpty()) {
+            session.println("No available vaccine!");
+        }
+        for (Map.Entry<String, Integer> vaccine : vaccines.entrySet()) {
+            session.println("Available Vaccines: " + vaccine.getKey());
+            session.println("Doses: " + vaccine.getValue());
         }
     }
 
-    private static void reserve(String[] tokens) throws SQLException {
-        if (currentCaregiver != null) {
-            System.out.println("Please login as a patient!");
+    private static void reserve(Session session, String[] tokens) throws SQLException {
+        if (session.getCaregiver() != null) {
+            session.println("Please login as a patient!");
             return;
         }
-        else if (currentPatient == null) {
-            System.out.println("Please login first!");
+        else if (session.getPatient() == null) {
+            session.println("Please login first!");
             return;
         }
         else if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String reserve1 = "SELECT A.Username FROM Availabilities AS A WHERE A.Time = ? ORDER BY A.Username ASC";
-        String reserve2 = "SELECT * FROM Vaccines WHERE Vaccines.Name = ?";
+        Date d;
         try {
-            PreparedStatement statement1 = con.prepareStatement(reserve1);;
-            statement1.setString(1, tokens[1]);
-            ResultSet result1 = statement1.executeQuery();
-
-            PreparedStatement statement2 = con.prepareStatement(reserve2);
-            statement2.setString(1, tokens[2]);
-            ResultSet result2 = statement2.executeQuery();
-
-            Boolean hasCaregiver = result1.next();
-            Boolean hasVaccine = result2.next();
-            if (Integer. parseInt(result2.getString(2)) == 0) {
-                hasVaccine = false;
-            }
-            if (hasCaregiver && hasVaccine) { // if there is caregiver available, show vaccines
-                String getId = "SELECT A.Id FROM Appointment A";
-                PreparedStatement getIdStatement = con.prepareStatement(getId);
-                ResultSet resultOfId = getIdStatement.executeQuery();
-                int id = -1;
-                while (resultOfId.next()) {
-                    id = Integer.parseInt(resultOfId.getString("id"));
-                }
-                if (id == -1) {
-                    id = 0;
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return;
+        }
+        try {
+            ReservationResult result = reservationEngine.reserve(session.getPatient().getUsername(), d, tokens[2]);
+            if (result.isBooked()) {
+                session.println("Appointment ID: " + result.getAppointmentId());
+                session.println("Caregiver username: " + result.getCaregiver());
+            }
+            else {
+                if (result.getStatus() == ReservationResult.Status.NO_CAREGIVER) {
+                    session.println("No available caregiver!");
                 }
                 else {
-                    id++;
+                    session.println("No available vaccine!");
                 }
-
-                // insert new appointment
-                String firstLine = result1.getString(1);
-                String appointment = "INSERT INTO Appointment VALUES (?, ?, ?, ?, ?)";
-                PreparedStatement update = con.prepareStatement(appointment);
-                update.setString(1, Integer.toString(id)); // id
-                update.setString(2, currentPatient.getUsername()); // patient
-                update.setString(3, firstLine); // caregiver
-                update.setString(4, tokens[2]); // vaccine
-                update.setString(5, tokens[1]); // time
-                update.executeUpdate();
-                // consume one vaccine
-                Vaccine vaccine = new Vaccine.VaccineGetter(tokens[2]).get();
-                vaccine.decreaseAvailableDoses(1);
-                // delete availability
-                String deleteAvailability = "DELETE FROM Availabilities WHERE Username = ? AND Time = ?";
-                PreparedStatement statement3 = con.prepareStatement(deleteAvailability);
-                statement3.setString(1, firstLine);
-                statement3.setString(2, tokens[1]);
-                statement3.executeUpdate();
-                System.out.println("Appointment ID: " + id);
-                System.out.println("Caregiver username: " + firstLine);
-            }
-            else if (!hasCaregiver){ // if there is no available caregiver, do not show vaccines
-                System.out.println("No available caregiver!");
-            }
-            else {
-                System.out.println("No available vaccine!");
+                session.println("Join the waitlist to be booked automatically: join_waitlist <from> <to> <vaccine>");
             }
         } catch (SQLException e) {
             e.printStackTrace();
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
+    private static void uploadAvailability(Session session, String[] tokens) {
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String date = tokens[1];
         try {
             Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            session.getCaregiver().uploadAvailability(d);
+            session.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.println("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            session.println("Error occurred when uploading availability");
             e.printStackTrace();
+            session.markFailed();
         }
     }
 
-    private static void cancel(String[] tokens) throws SQLException {
-        if (currentCaregiver != null) {
-            System.out.println("Please login as a patient!");
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start_date> <end_date> [weekday_mask]
+        // the mask has one 0/1 character per weekday starting on Monday, e.g. 1111100 for weekdays only
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.println("Please try again!");
             return;
         }
-        else if (currentPatient == null) {
-            System.out.println("Please login first!");
+        String mask = tokens.length == 4 ? tokens[3] : "1111111";
+        if (!mask.matches("[01]{7}")) {
+            session.println("Please enter a weekday mask of seven 0/1 characters, starting on Monday!");
+            return;
+        }
+        List<Date> dates = new ArrayList<>();
+        try {
+            LocalDate start = Date.valueOf(tokens[1]).toLocalDate();
+            LocalDate end = Date.valueOf(tokens[2]).toLocalDate();
+            if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_AVAILABILITY_RANGE_DAYS) {
+                session.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+                return;
+            }
+            for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+                if (mask.charAt(day.getDayOfWeek().getValue() - 1) == '1') {
+                    dates.add(Date.valueOf(day));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return;
+        }
+        try {
+            int inserted = session.getCaregiver().uploadAvailabilities(dates);
+            session.println("Availability uploaded for " + inserted + " day(s)!");
+            if (inserted < dates.size()) {
+                session.println("Skipped " + (dates.size() - inserted) + " day(s) already uploaded.");
+            }
+        } catch (SQLException e) {
+            session.println("Error occurred when uploading availability");
+            e.printStackTrace();
+            session.markFailed();
+        }
+    }
+
+    private static void cancel(Session session, String[] tokens) throws SQLException {
+        if (session.getCaregiver() != null) {
+            session.println("Please login as a patient!");
+            return;
+        }
+        else if (session.getPatient() == null) {
+            session.println("Please login first!");
             return;
         }
         else if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        // the appointment goes and its caregiver's day and dose come back in one transaction
+        UnitOfWork uow = new UnitOfWork();
         String check = "SELECT * FROM Appointment AS A WHERE A.Id = ? AND A.Patient = ?";
-        String cancel = "DELETE FROM Appointment WHERE Appointment.Id = ?";
-        String insert = "INSERT INTO Availabilities VALUES (?, ?)";
 
         try {
-            PreparedStatement statementCheck = con.prepareStatement(check);
+            PreparedStatement statementCheck = uow.connection().prepareStatement(check);
             statementCheck.setString(1, tokens[1]);
-            statementCheck.setString(2, currentPatient.getUsername());
+            String patient = session.getPatient().getUsername();
+            statementCheck.setString(2, patient);
             ResultSet resultCheck = statementCheck.executeQuery();
             if (resultCheck.next()) {
-                // delete the appointment
-                PreparedStatement statementCancel = con.prepareStatement(cancel);
-                statementCancel.setString(1, tokens[1]);
-                statementCancel.executeUpdate();
-                // insert availabilities
-                PreparedStatement statementInsert = con.prepareStatement(insert);
-                statementInsert.setString(1, resultCheck.getString(5)); // Time
-                statementInsert.setString(2, resultCheck.getString(3)); // Caregiver
-                statementInsert.executeUpdate();
-                // add dose
-                Vaccine vaccine = new Vaccine.VaccineGetter(resultCheck.getString(4)).get();
-                vaccine.increaseAvailableDoses(1);
-                System.out.println("Canceled successfully!");
+                int id = resultCheck.getInt(1);
+                String caregiver = resultCheck.getString(3);
+                String vaccine = resultCheck.getString(4);
+                Date time = resultCheck.getDate(5);
+                uow.registerDeletedAppointment(id);
+                uow.registerNewAvailability(time, caregiver);
+                VaccineInventory.getDefault().addDoses(vaccine, 1, uow);
+                uow.afterCommit(() -> {
+                    Journal.record(JournalRecord.canceled(id, patient, caregiver, vaccine, time));
+                    AvailabilityIndex.getDefault().add(time, caregiver);
+                    CaregiverLoad.getDefault().canceled(caregiver);
+                    ReplicaRouter.getDefault().markWrite(caregiver);
+                    MatchingEngine.getDefault().appointmentCanceled(time, vaccine);
+                });
+                uow.commit();
+                session.println("Canceled successfully!");
             }
             else {
-                System.out.println("No such appointment!");
+                session.println("No such appointment!");
             }
+        } catch (UnitOfWork.ConflictException e) {
+            // canceled by a concurrent command since we looked it up
+            session.println("No such appointment!");
         } catch (SQLException e) {
             e.printStackTrace();
             throw new SQLException();
         } finally {
-            cm.closeConnection();
+            uow.close();
         }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
+            return;
+        }
+        // the inventory creates the vaccine if it is not in the Vaccines table yet
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            VaccineInventory.getDefault().addDoses(vaccineName, doses);
+            Journal.record(JournalRecord.dosesAdded(vaccineName, doses));
+            MatchingEngine.getDefault().dosesAdded(vaccineName);
+        } catch (IllegalArgumentException e) {
+            session.println(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.println("Error occurred when adding doses");
             e.printStackTrace();
+            session.markFailed();
+            return;
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+        session.println("Doses updated!");
+    }
+
+    private static void showAppointments(Session session, String[] tokens) throws SQLException {
+        // show_appointments [--after <id>] [--limit <n>] [--from <date>] [--to <date>]
+        if (session.getCaregiver() == null && session.getPatient() == null) {
+            session.println("Please login first!");
+            return;
+        }
+        Integer after = null;
+        int limit = DEFAULT_APPOINTMENT_PAGE;
+        Date from = null;
+        Date to = null;
+        if (tokens.length % 2 != 1) {
+            session.println("Please try again!");
+            return;
+        }
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                switch (tokens[i]) {
+                    case "--after":
+                        after = Integer.parseInt(tokens[i + 1]);
+                        break;
+                    case "--limit":
+                        limit = Integer.parseInt(tokens[i + 1]);
+                        break;
+                    case "--from":
+                        from = Date.valueOf(tokens[i + 1]);
+                        break;
+                    case "--to":
+                        to = Date.valueOf(tokens[i + 1]);
+                        break;
+                    default:
+                        session.println("Please try again!");
+                        return;
+                }
             }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again!");
+            return;
+        }
+        if (limit < 1 || limit > MAX_APPOINTMENT_PAGE) {
+            session.println("Limit must be between 1 and " + MAX_APPOINTMENT_PAGE + "!");
+            return;
+        }
+
+        // keyset pagination on Id: each page seeks past the last id of the previous one
+        String name;
+        StringBuilder search = new StringBuilder();
+        if (session.getCaregiver() != null) {
+            name = session.getCaregiver().getUsername();
+            search.append("SELECT A.Id, Vaccine, A.Time, A.Patient FROM Appointment A WHERE Caregiver = ?");
+        }
+        else {
+            name = session.getPatient().getUsername();
+            search.append("SELECT A.Id, Vaccine, A.Time, A.Caregiver FROM Appointment A WHERE Patient = ?");
+        }
+        if (after != null) {
+            search.append(" AND A.Id > ?");
+        }
+        if (from != null) {
+            search.append(" AND A.Time >= ?");
+        }
+        if (to != null) {
+            search.append(" AND A.Time <= ?");
+        }
+        search.append(" ORDER BY A.Id");
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createReadConnection(name);
+        try {
+            PreparedStatement statement = con.prepareStatement(search.toString());
+            int parameter = 1;
+            statement.setString(parameter++, name);
+            if (after != null) {
+                statement.setInt(parameter++, after);
+            }
+            if (from != null) {
+                statement.setDate(parameter++, from);
+            }
+            if (to != null) {
+                statement.setDate(parameter++, to);
+            }
+            // one extra row tells us whether there is another page
+            statement.setMaxRows(limit + 1);
+            statement.setFetchSize(Math.min(limit + 1, APPOINTMENT_FETCH_SIZE));
+            ResultSet result = statement.executeQuery();
+            int shown = 0;
+            int lastId = 0;
+            boolean more = false;
+            while (result.next()) {
+                if (shown == limit) {
+                    more = true;
+                    break;
+                }
+                lastId = result.getInt(1);
+                session.println("Appointment ID: " + lastId);
+                session.println("Vaccine: " + result.getString(2));
+                session.println("Date: " + result.getString(3));
+                if (session.getCaregiver() != null) {
+                    session.println("Caregiver: " + result.getString(4));
+                }
+                else {
+                    session.println("Patient: " + result.getString(4));
+                }
+                session.println();
+                shown++;
+                // stream each fetched batch to the client instead of holding the whole page
+                if (shown % APPOINTMENT_FETCH_SIZE == 0) {
+                    session.flush();
+                }
             }
+            if (shown == 0) {
+                session.println("No appointment!");
+            }
+            // the cursor is only an id, so the next page must repeat this page's filters
+            String next = "show_appointments --after " + lastId;
+            if (limit != DEFAULT_APPOINTMENT_PAGE) {
+                next += " --limit " + limit;
+            }
+            if (from != null) {
+                next += " --from " + from;
+            }
+            if (to != null) {
+                next += " --to " + to;
+            }
+            if (session.isRemote()) {
+                session.println("Cursor: " + (more ? lastId + " (send the same filters again: " + next + ")" : "end"));
+            }
+            else if (more) {
+                session.println("More appointments: " + next);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
         }
-        System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) throws SQLException {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void joinWaitlist(Session session, String[] tokens) {
+        // join_waitlist <from> <to> <vaccine>
+        if (session.getCaregiver() != null) {
+            session.println("Please login as a patient!");
             return;
         }
-        else if (tokens.length != 1) {
-            System.out.println("Please try again!");
+        else if (session.getPatient() == null) {
+            session.println("Please login first!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String name = "";
-        String search = "";
-        if (currentCaregiver != null) {
-            name = currentCaregiver.getUsername();
-            search = "SELECT A.Id, Vaccine, A.Time, A.Patient FROM Appointment A WHERE Caregiver = ? ORDER BY A.Id";
+        else if (tokens.length != 4) {
+            session.println("Please try again!");
+            return;
         }
-        else if (currentPatient != null) {
-            name = currentPatient.getUsername();
-            search = "SELECT A.Id, Vaccine, A.Time, A.Caregiver FROM Appointment A WHERE Patient = ? ORDER BY A.Id";
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return;
+        }
+        long rangeDays = ChronoUnit.DAYS.between(from.toLocalDate(), to.toLocalDate()) + 1;
+        if (rangeDays < 1 || rangeDays > MAX_AVAILABILITY_RANGE_DAYS) {
+            session.println("The date range must be between 1 and " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+            return;
         }
         try {
-            PreparedStatement statement = con.prepareStatement(search);
-            statement.setString(1, name);
-            ResultSet result = statement.executeQuery();
-            boolean hasAppointment = false;
-            hasAppointment = result.next();
-            if (hasAppointment) {
-                do {
-                    System.out.println("Appointment ID: " + result.getString(1));
-                    System.out.println("Vaccine: " + result.getString(2));
-                    System.out.println("Date: " + result.getString(3));
-                    if (currentCaregiver != null) {
-                        System.out.println("Caregiver: " + result.getString(4));
-                    }
-                    else {
-                        System.out.println("Patient: " + result.getString(4));
-                    }
-                    System.out.println();
-                } while (result.next());
+            int id = Waitlist.join(session.getPatient().getUsername(), tokens[3], from, to, 0);
+            session.println("Joined the waitlist with ID: " + id);
+            session.println("You will be booked on the first day a caregiver and a dose are free.");
+        } catch (IllegalArgumentException e) {
+            session.println(e.getMessage());
+        } catch (SQLException e) {
+            session.println("Error occurred when joining the waitlist");
+            e.printStackTrace();
+            session.markFailed();
+        }
+    }
+
+    private static void leaveWaitlist(Session session, String[] tokens) {
+        // leave_waitlist <waitlist_id>
+        if (session.getPatient() == null) {
+            session.println("Please login as a patient first!");
+            return;
+        }
+        else if (tokens.length != 2) {
+            session.println("Please try again!");
+            return;
+        }
+        try {
+            if (Waitlist.leave(session.getPatient().getUsername(), Integer.parseInt(tokens[1]))) {
+                session.println("Left the waitlist!");
             }
             else {
-                System.out.println("No appointment!");
+                session.println("No such waitlist entry!");
             }
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
+        } catch (SQLException e) {
+            session.println("Error occurred when leaving the waitlist");
+            e.printStackTrace();
+            session.markFailed();
+        }
+    }
 
+    private static void showWaitlist(Session session, String[] tokens) {
+        if (session.getPatient() == null) {
+            session.println("Please login as a patient first!");
+            return;
+        }
+        else if (tokens.length != 1) {
+            session.println("Please try again!");
+            return;
+        }
+        try {
+            List<String> entries = Waitlist.entries(session.getPatient().getUsername());
+            if (entries.isEmpty()) {
+                session.println("Not on the waitlist!");
+            }
+            for (String entry : entries) {
+                String[] fields = entry.split(" ");
+                session.println("Waitlist ID: " + fields[0]);
+                session.println("Vaccine: " + fields[1]);
+                session.println("Dates: " + fields[2] + " to " + fields[3]);
+                session.println();
+            }
         } catch (SQLException e) {
+            session.println("Error occurred when reading the waitlist");
             e.printStackTrace();
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            session.markFailed();
+        }
+    }
+
+    private static void stats(Session session, String[] tokens) {
+        if (tokens.length != 1) {
+            session.println("Please try again!");
+            return;
+        }
+        session.getOut().print(Metrics.getDefault().report());
+        session.println(SessionManager.getDefault().toString());
+        session.println(AsyncRepository.getDefault().toString());
+        if (Journal.getDefault() != null) {
+            session.println(Journal.getDefault().toString());
+        }
+        if (ConnectionManager.currentReadPool() != null) {
+            session.println(ConnectionManager.currentReadPool().toString());
+            session.println(ReplicaRouter.getDefault().toString());
         }
     }
 
-    private static void logout(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void logout(Session session, String[] tokens) {
+        if (session.getCaregiver() == null && session.getPatient() == null) {
+            session.println("Please login first!");
             return;
         }
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
-        currentPatient = null;
-        currentCaregiver = null;
-        System.out.println("Successfully logged out!");
+        SessionManager.getDefault().invalidate(session.getToken());
+        session.setToken(null);
+        session.setPatient(null);
+        session.setCaregiver(null);
+        session.println("Successfully logged out!");
         return;
     }
 
-    private static boolean checkPasswordIllegal(String password) {
+    // true if the password meets the requirements (the name is historical)
+    public static boolean checkPasswordIllegal(String password) {
         boolean upperCase = false;
         boolean lowerCase = false;
         boolean letter = false;
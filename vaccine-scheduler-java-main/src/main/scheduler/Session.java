@@ -0,0 +1,92 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+/**
+ * The state of one user of the scheduler: who is logged in and where command output goes.
+ * The interactive console has a single session; the server has one per connection.
+ */
+public class Session {
+    // Note: it is always true that at most one of caregiver and patient is not null
+    //       since only one user can be logged-in per session at a time
+    private Caregiver caregiver = null;
+    private Patient patient = null;
+    // the SessionManager token of the current login, if one was issued
+    private String token = null;
+    private final PrintStream out;
+    private final boolean remote;
+    // set by a command that reported a database error to the user instead of throwing it
+    private boolean failed = false;
+
+    public Session(PrintStream out) {
+        this(out, false);
+    }
+
+    public Session(PrintStream out, boolean remote) {
+        this.out = out;
+        this.remote = remote;
+    }
+
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    public void setCaregiver(Caregiver caregiver) {
+        this.caregiver = caregiver;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public boolean isLoggedIn() {
+        return caregiver != null || patient != null;
+    }
+
+    // true for server sessions, whose output is read by programs as well as people
+    public boolean isRemote() {
+        return remote;
+    }
+
+    public void markFailed() {
+        failed = true;
+    }
+
+    // whether the current command failed, clearing the flag for the next one
+    public boolean takeFailed() {
+        boolean result = failed;
+        failed = false;
+        return result;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public void println(String line) {
+        out.println(line);
+    }
+
+    public void println() {
+        out.println();
+    }
+
+    public void flush() {
+        out.flush();
+    }
+}
@@ -0,0 +1,175 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opaque tokens for logged-in users, so a client that reconnects can resume its login with a map lookup
+ * instead of another password check.
+ *
+ * A token is issued on every successful login and is valid until it goes unused for the time-to-live, the
+ * user logs out, or the store is full and it is the least recently used token. Tokens live only in memory,
+ * so a restart invalidates all of them.
+ */
+public class SessionManager {
+    private static final int TOKEN_BYTES = 24;
+
+    private static volatile SessionManager defaultManager = null;
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private final int maxTokens;
+    // access order, so the eldest entry is the least recently used token
+    private final LinkedHashMap<String, Entry> tokens = new LinkedHashMap<>(16, 0.75f, true);
+
+    // metrics
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public SessionManager(long ttlSeconds, int maxTokens) {
+        if (ttlSeconds < 1 || maxTokens < 1) {
+            throw new IllegalArgumentException("Invalid session manager configuration!");
+        }
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * The shared manager, configured with -Dscheduler.session.ttlSeconds and -Dscheduler.session.maxTokens.
+     */
+    public static SessionManager getDefault() {
+        SessionManager m = defaultManager;
+        if (m == null) {
+            synchronized (SessionManager.class) {
+                m = defaultManager;
+                if (m == null) {
+                    m = new SessionManager(
+                            Long.getLong("scheduler.session.ttlSeconds", 30 * 60),
+                            Integer.getInteger("scheduler.session.maxTokens", 10_000));
+                    defaultManager = m;
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Issue a token for whoever is logged in to the session and remember it on the session.
+     */
+    public String issue(Session session) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Entry entry = new Entry(session.getPatient(), session.getCaregiver(), System.nanoTime() + ttlNanos);
+        synchronized (tokens) {
+            tokens.put(token, entry);
+            if (tokens.size() > maxTokens) {
+                removeExpired(System.nanoTime());
+            }
+            Iterator<Entry> eldest = tokens.values().iterator();
+            while (tokens.size() > maxTokens) {
+                eldest.next();
+                eldest.remove();
+                evicted.incrementAndGet();
+            }
+        }
+        session.setToken(token);
+        issued.incrementAndGet();
+        return token;
+    }
+
+    /**
+     * Log the session in as the token's user. Returns false if the token is unknown or expired.
+     */
+    public boolean resume(Session session, String token) {
+        Entry entry;
+        long now = System.nanoTime();
+        synchronized (tokens) {
+            entry = tokens.get(token);
+            if (entry != null && entry.expiresAt - now < 0) {
+                tokens.remove(token);
+                entry = null;
+            }
+            if (entry != null) {
+                entry.expiresAt = now + ttlNanos;
+            }
+        }
+        if (entry == null) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        session.setPatient(entry.patient);
+        session.setCaregiver(entry.caregiver);
+        session.setToken(token);
+        resumed.incrementAndGet();
+        return true;
+    }
+
+    public void invalidate(String token) {
+        if (token == null) {
+            return;
+        }
+        synchronized (tokens) {
+            tokens.remove(token);
+        }
+    }
+
+    // expired tokens go before live ones are evicted; callers hold the lock
+    private void removeExpired(long now) {
+        tokens.values().removeIf(entry -> entry.expiresAt - now < 0);
+    }
+
+    // Metrics
+    public int getTokenCount() {
+        synchronized (tokens) {
+            return tokens.size();
+        }
+    }
+
+    public long getIssuedCount() {
+        return issued.get();
+    }
+
+    public long getResumedCount() {
+        return resumed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionManager{" +
+                "tokens=" + getTokenCount() +
+                ", issued=" + getIssuedCount() +
+                ", resumed=" + getResumedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", evicted=" + getEvictedCount() +
+                '}';
+    }
+
+    private static class Entry {
+        private final Patient patient;
+        private final Caregiver caregiver;
+        private long expiresAt;
+
+        private Entry(Patient patient, Caregiver caregiver, long expiresAt) {
+            this.patient = patient;
+            this.caregiver = caregiver;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
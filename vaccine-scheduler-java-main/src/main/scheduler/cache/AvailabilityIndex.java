@@ -0,0 +1,245 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory copy of the Availabilities table: epoch day to the sorted set of caregivers available that day.
+ *
+ * The index is loaded once at startup and kept current by write-through from this process (uploads, reserve,
+ * cancel). Changes made by other processes are picked up by a periodic resync that reloads the table and
+ * swaps the new map in; writes that happen while a resync is loading are replayed onto the new map so they
+ * are not lost. Reads never touch the database and never block.
+ *
+ * Until {@link #start} has loaded the table the index reports itself as not loaded and callers are expected
+ * to query the database instead.
+ */
+public class AvailabilityIndex {
+    private static final AvailabilityIndex defaultIndex = new AvailabilityIndex();
+
+    private static final String selectAll = "SELECT Time, Username FROM Availabilities";
+
+    private volatile ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> days = null;
+
+    // guards write-through against a concurrent swap; non-null only while a resync is loading
+    private final Object writeLock = new Object();
+    private List<Runnable> pendingDuringResync = null;
+
+    private ScheduledExecutorService resyncer = null;
+    private volatile long lastResyncMillis = 0;
+
+    public static AvailabilityIndex getDefault() {
+        return defaultIndex;
+    }
+
+    /**
+     * Load the table and resync it every resyncSeconds (0 disables the periodic resync).
+     */
+    public synchronized void start(long resyncSeconds) throws SQLException {
+        resync();
+        scheduleResync(resyncSeconds, resyncSeconds);
+    }
+
+    /**
+     * Serve the availabilities of a snapshot straight away and load the table in the background, then resync
+     * every resyncSeconds (0 disables the periodic resync but still loads the table once).
+     */
+    public synchronized void start(Snapshot snapshot, long resyncSeconds) {
+        String[] names = snapshot.getNames();
+        int[] epochDays = snapshot.getAvailabilityDays();
+        int[] caregivers = snapshot.getAvailabilityCaregivers();
+        ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> restored = new ConcurrentHashMap<>();
+        for (int i = 0; i < epochDays.length; i++) {
+            add(restored, epochDays[i], names[caregivers[i]]);
+        }
+        synchronized (writeLock) {
+            days = restored;
+        }
+        scheduleResync(0, resyncSeconds);
+    }
+
+    private void scheduleResync(long initialDelaySeconds, long resyncSeconds) {
+        if (resyncer != null || (resyncSeconds <= 0 && initialDelaySeconds > 0)) {
+            return;
+        }
+        resyncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "availability-resync");
+            t.setDaemon(true);
+            return t;
+        });
+        Runnable task = () -> {
+            try {
+                resync();
+            } catch (SQLException e) {
+                System.out.println("Error occurred when resyncing availabilities");
+                e.printStackTrace();
+            }
+        };
+        if (resyncSeconds > 0) {
+            resyncer.scheduleWithFixedDelay(task, initialDelaySeconds, resyncSeconds, TimeUnit.SECONDS);
+        } else {
+            resyncer.execute(task);
+        }
+    }
+
+    public synchronized void stop() {
+        if (resyncer != null) {
+            resyncer.shutdownNow();
+            resyncer = null;
+        }
+    }
+
+    public boolean isLoaded() {
+        return days != null;
+    }
+
+    // the current version of the index, or null if it is not loaded
+    Map<Integer, ? extends Set<String>> days() {
+        return days;
+    }
+
+    public long getLastResyncMillis() {
+        return lastResyncMillis;
+    }
+
+    /**
+     * Reload the whole table and swap it in.
+     */
+    public synchronized void resync() throws SQLException {
+        synchronized (writeLock) {
+            pendingDuringResync = new ArrayList<>();
+        }
+        ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> fresh = new ConcurrentHashMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(selectAll);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                add(fresh, key(resultSet.getDate(1)), resultSet.getString(2));
+            }
+        } catch (SQLException e) {
+            synchronized (writeLock) {
+                pendingDuringResync = null;
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+        synchronized (writeLock) {
+            days = fresh;
+            // the ops read the days field, so they must run after the swap; replaying an add or remove
+            // that the load already saw is harmless
+            for (Runnable op : pendingDuringResync) {
+                op.run();
+            }
+            pendingDuringResync = null;
+        }
+        lastResyncMillis = System.currentTimeMillis();
+    }
+
+    // Write-through, called after the corresponding database change has committed
+    public void add(Date date, String caregiver) {
+        write(() -> add(days, key(date), caregiver));
+    }
+
+    public void addAll(List<Date> dates, String caregiver) {
+        write(() -> {
+            for (Date date : dates) {
+                add(days, key(date), caregiver);
+            }
+        });
+    }
+
+    public void remove(Date date, String caregiver) {
+        write(() -> {
+            NavigableSet<String> caregivers = lookup(date);
+            if (caregivers != null) {
+                caregivers.remove(caregiver);
+            }
+        });
+    }
+
+    private void write(Runnable op) {
+        synchronized (writeLock) {
+            if (days != null) {
+                op.run();
+            }
+            if (pendingDuringResync != null) {
+                pendingDuringResync.add(op);
+            }
+        }
+    }
+
+    private static void add(ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> map, int day,
+                            String caregiver) {
+        map.computeIfAbsent(day, d -> new ConcurrentSkipListSet<>()).add(caregiver);
+    }
+
+    // Reads
+
+    /**
+     * The caregivers available on the given day, in username order.
+     */
+    public List<String> caregivers(Date date) {
+        NavigableSet<String> caregivers = lookup(date);
+        return caregivers == null ? Collections.emptyList() : new ArrayList<>(caregivers);
+    }
+
+    /**
+     * Every day from from to to (inclusive) with at least one caregiver, mapped to its caregivers in username
+     * order. All days are read from the same version of the index.
+     */
+    public SortedMap<Date, List<String>> range(Date from, Date to) {
+        SortedMap<Date, List<String>> result = new TreeMap<>();
+        ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> current = days;
+        if (current == null) {
+            return result;
+        }
+        for (int day = key(from); day <= key(to); day++) {
+            NavigableSet<String> caregivers = current.get(day);
+            if (caregivers != null && !caregivers.isEmpty()) {
+                result.put(Date.valueOf(LocalDate.ofEpochDay(day)), new ArrayList<>(caregivers));
+            }
+        }
+        return result;
+    }
+
+    public int count(Date date) {
+        NavigableSet<String> caregivers = lookup(date);
+        return caregivers == null ? 0 : caregivers.size();
+    }
+
+    public boolean isAvailable(Date date, String caregiver) {
+        NavigableSet<String> caregivers = lookup(date);
+        return caregivers != null && caregivers.contains(caregiver);
+    }
+
+    private NavigableSet<String> lookup(Date date) {
+        ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> current = days;
+        return current == null ? null : current.get(key(date));
+    }
+
+    static int key(Date date) {
+        return (int) date.toLocalDate().toEpochDay();
+    }
+}
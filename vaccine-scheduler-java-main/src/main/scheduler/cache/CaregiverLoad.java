@@ -0,0 +1,134 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How many appointments each caregiver has, loaded from the Appointment table at startup and kept current by
+ * this process's bookings and cancellations. Used to spread bookings across caregivers; it only steers the
+ * choice of caregiver, so drift from other processes is harmless.
+ *
+ * A load builds a new map and swaps it in. Bookings and cancellations made while it runs are applied to the
+ * new map as well, so a load in the background (after restoring a snapshot) loses none of them.
+ */
+public class CaregiverLoad {
+    private static final CaregiverLoad defaultLoad = new CaregiverLoad();
+
+    private static final String selectCounts = "SELECT Caregiver, COUNT(*) FROM Appointment GROUP BY Caregiver";
+
+    private volatile ConcurrentHashMap<String, AtomicInteger> bookings = new ConcurrentHashMap<>();
+
+    // guards changes against a concurrent swap; non-null only while a load is reading the table
+    private final Object writeLock = new Object();
+    private Map<String, Integer> changesDuringLoad = null;
+
+    public static CaregiverLoad getDefault() {
+        return defaultLoad;
+    }
+
+    public synchronized void load() throws SQLException {
+        synchronized (writeLock) {
+            changesDuringLoad = new HashMap<>();
+        }
+        ConcurrentHashMap<String, AtomicInteger> fresh = new ConcurrentHashMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(selectCounts);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                fresh.put(resultSet.getString(1), new AtomicInteger(resultSet.getInt(2)));
+            }
+        } catch (SQLException e) {
+            synchronized (writeLock) {
+                changesDuringLoad = null;
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+        synchronized (writeLock) {
+            // a change committed just before the query may be counted twice; the counts are only a hint
+            for (Map.Entry<String, Integer> change : changesDuringLoad.entrySet()) {
+                apply(fresh, change.getKey(), change.getValue());
+            }
+            changesDuringLoad = null;
+            bookings = fresh;
+        }
+    }
+
+    /**
+     * Start from the counts of a snapshot and reload the table in the background.
+     */
+    public void load(Snapshot snapshot) {
+        String[] names = snapshot.getNames();
+        int[] caregivers = snapshot.getLoadCaregivers();
+        int[] counts = snapshot.getLoadBookings();
+        ConcurrentHashMap<String, AtomicInteger> restored = new ConcurrentHashMap<>();
+        for (int i = 0; i < caregivers.length; i++) {
+            restored.put(names[caregivers[i]], new AtomicInteger(counts[i]));
+        }
+        synchronized (writeLock) {
+            bookings = restored;
+        }
+        Thread reload = new Thread(() -> {
+            try {
+                load();
+            } catch (SQLException e) {
+                System.out.println("Could not load caregiver bookings, keeping the snapshot's: " + e.getMessage());
+            }
+        }, "load-reload");
+        reload.setDaemon(true);
+        reload.start();
+    }
+
+    // every caregiver with bookings and their count
+    Map<String, Integer> counts() {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : bookings.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public int get(String caregiver) {
+        AtomicInteger count = bookings.get(caregiver);
+        return count == null ? 0 : count.get();
+    }
+
+    public void booked(String caregiver) {
+        change(caregiver, 1);
+    }
+
+    public void canceled(String caregiver) {
+        change(caregiver, -1);
+    }
+
+    private void change(String caregiver, int delta) {
+        synchronized (writeLock) {
+            apply(bookings, caregiver, delta);
+            if (changesDuringLoad != null) {
+                changesDuringLoad.merge(caregiver, delta, Integer::sum);
+            }
+        }
+    }
+
+    private static void apply(ConcurrentHashMap<String, AtomicInteger> map, String caregiver, int delta) {
+        if (delta > 0) {
+            map.computeIfAbsent(caregiver, k -> new AtomicInteger()).addAndGet(delta);
+        } else {
+            AtomicInteger count = map.get(caregiver);
+            if (count != null) {
+                count.updateAndGet(n -> Math.max(0, n + delta));
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package scheduler.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of the cached scheduling state (availabilities, vaccine doses and bookings per
+ * caregiver), so that a restarted scheduler can serve searches before it has read the tables.
+ *
+ * Usernames are stored once in a dictionary and referred to by their index; availabilities are two parallel
+ * int arrays of epoch days and caregiver ids. The file is written to a temporary file and moved into place, and
+ * read back through a read-only memory mapping with bulk int copies.
+ *
+ * A snapshot is only a starting point: after restoring it, the availability index and the caregiver bookings
+ * reload their tables in the background and swap the result in.
+ *
+ * Layout (big-endian):
+ *   int magic | int version | long createdMillis
+ *   int names | names x (short length | UTF-8 bytes)
+ *   int availabilities | int[] epochDays | int[] caregiverIds
+ *   int vaccines | vaccines x (short length | UTF-8 bytes) | int[] doses
+ *   int loads | int[] caregiverIds | int[] bookings
+ *   int crc32 of everything before it
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 2;
+
+    private static ScheduledExecutorService writer = null;
+
+    private final long createdMillis;
+    private final String[] names;
+    private final int[] availabilityDays;
+    private final int[] availabilityCaregivers;
+    private final String[] vaccines;
+    private final int[] doses;
+    private final int[] loadCaregivers;
+    private final int[] loadBookings;
+
+    private Snapshot(long createdMillis, String[] names, int[] availabilityDays,
+                     int[] availabilityCaregivers, String[] vaccines, int[] doses, int[] loadCaregivers,
+                     int[] loadBookings) {
+        this.createdMillis = createdMillis;
+        this.names = names;
+        this.availabilityDays = availabilityDays;
+        this.availabilityCaregivers = availabilityCaregivers;
+        this.vaccines = vaccines;
+        this.doses = doses;
+        this.loadCaregivers = loadCaregivers;
+        this.loadBookings = loadBookings;
+    }
+
+    /**
+     * Copy the current state of the caches. The availability index must be loaded; vaccines come from the
+     * database when the inventory is not.
+     */
+    public static Snapshot capture() throws SQLException {
+        Map<Integer, ? extends Set<String>> days = AvailabilityIndex.getDefault().days();
+        if (days == null) {
+            throw new SQLException("Availabilities are not loaded");
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        int total = 0;
+        for (Set<String> caregivers : days.values()) {
+            total += caregivers.size();
+        }
+        int[] availabilityDays = new int[total];
+        int[] availabilityCaregivers = new int[total];
+        int n = 0;
+        for (Map.Entry<Integer, ? extends Set<String>> entry : days.entrySet()) {
+            for (String caregiver : entry.getValue()) {
+                // the sets may have grown since they were counted
+                if (n == availabilityDays.length) {
+                    availabilityDays = grow(availabilityDays);
+                    availabilityCaregivers = grow(availabilityCaregivers);
+                }
+                availabilityDays[n] = entry.getKey();
+                availabilityCaregivers[n] = id(ids, names, caregiver);
+                n++;
+            }
+        }
+
+        Map<String, Integer> stock = VaccineInventory.getDefault().snapshot();
+        String[] vaccines = stock.keySet().toArray(new String[0]);
+        int[] doses = new int[vaccines.length];
+        for (int i = 0; i < vaccines.length; i++) {
+            doses[i] = stock.get(vaccines[i]);
+        }
+
+        Map<String, Integer> bookings = CaregiverLoad.getDefault().counts();
+        int[] loadCaregivers = new int[bookings.size()];
+        int[] loadBookings = new int[bookings.size()];
+        int l = 0;
+        for (Map.Entry<String, Integer> entry : bookings.entrySet()) {
+            loadCaregivers[l] = id(ids, names, entry.getKey());
+            loadBookings[l] = entry.getValue();
+            l++;
+        }
+
+        return new Snapshot(System.currentTimeMillis(), names.toArray(new String[0]),
+                Arrays.copyOf(availabilityDays, n), Arrays.copyOf(availabilityCaregivers, n),
+                vaccines, doses, loadCaregivers, loadBookings);
+    }
+
+    private static int id(Map<String, Integer> ids, List<String> names, String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, Math.max(16, array.length * 2));
+    }
+
+    /**
+     * Write the snapshot to file, replacing any previous one only once the new one is complete.
+     */
+    public void write(Path file) throws IOException {
+        byte[][] encodedNames = encode(names);
+        byte[][] encodedVaccines = encode(vaccines);
+        long size = 4 + 4 + 8
+                + 4 + length(encodedNames)
+                + 4 + 8L * availabilityDays.length
+                + 4 + length(encodedVaccines) + 4L * doses.length
+                + 4 + 8L * loadCaregivers.length
+                + 4;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(createdMillis);
+        buffer.putInt(names.length);
+        putStrings(buffer, encodedNames);
+        buffer.putInt(availabilityDays.length);
+        putInts(buffer, availabilityDays);
+        putInts(buffer, availabilityCaregivers);
+        buffer.putInt(vaccines.length);
+        putStrings(buffer, encodedVaccines);
+        putInts(buffer, doses);
+        buffer.putInt(loadCaregivers.length);
+        putInts(buffer, loadCaregivers);
+        putInts(buffer, loadBookings);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Map a snapshot file and decode it. A file that is truncated or fails its checksum is rejected.
+     */
+    public static Snapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 24 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, (int) size - 4));
+            if (buffer.getInt((int) size - 4) != (int) crc.getValue()) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            buffer.limit((int) size - 4);
+            try {
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("Not a snapshot: " + file);
+                }
+                long createdMillis = buffer.getLong();
+                String[] names = getStrings(buffer, buffer.getInt());
+                int availabilities = buffer.getInt();
+                int[] availabilityDays = getInts(buffer, availabilities);
+                int[] availabilityCaregivers = getInts(buffer, availabilities);
+                String[] vaccines = getStrings(buffer, buffer.getInt());
+                int[] doses = getInts(buffer, vaccines.length);
+                int loads = buffer.getInt();
+                int[] loadCaregivers = getInts(buffer, loads);
+                int[] loadBookings = getInts(buffer, loads);
+                for (int id : availabilityCaregivers) {
+                    checkId(id, names, file);
+                }
+                for (int id : loadCaregivers) {
+                    checkId(id, names, file);
+                }
+                return new Snapshot(createdMillis, names, availabilityDays,
+                        availabilityCaregivers, vaccines, doses, loadCaregivers, loadBookings);
+            } catch (RuntimeException e) {
+                // a count that runs past the end of the file or is negative
+                throw new IOException("Corrupt snapshot: " + file, e);
+            }
+        }
+    }
+
+    private static void checkId(int id, String[] names, Path file) throws IOException {
+        if (id < 0 || id >= names.length) {
+            throw new IOException("Corrupt snapshot: " + file);
+        }
+    }
+
+    private static byte[][] encode(String[] strings) {
+        byte[][] encoded = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static long length(byte[][] encoded) {
+        long length = 0;
+        for (byte[] bytes : encoded) {
+            length += 2 + bytes.length;
+        }
+        return length;
+    }
+
+    private static void putStrings(ByteBuffer buffer, byte[][] encoded) {
+        for (byte[] bytes : encoded) {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String[] getStrings(ByteBuffer buffer, int count) {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    /**
+     * Write a snapshot to file every intervalSeconds until {@link #stopWriting()}.
+     */
+    public static synchronized void startWriting(Path file, long intervalSeconds) {
+        if (writer != null || intervalSeconds <= 0) {
+            return;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                capture().write(file);
+            } catch (SQLException | IOException e) {
+                System.out.println("Could not write the snapshot: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopWriting() {
+        if (writer != null) {
+            writer.shutdownNow();
+            writer = null;
+        }
+    }
+
+    String[] getNames() {
+        return names;
+    }
+
+    int[] getAvailabilityDays() {
+        return availabilityDays;
+    }
+
+    int[] getAvailabilityCaregivers() {
+        return availabilityCaregivers;
+    }
+
+    String[] getVaccines() {
+        return vaccines;
+    }
+
+    int[] getDoses() {
+        return doses;
+    }
+
+    int[] getLoadCaregivers() {
+        return loadCaregivers;
+    }
+
+    int[] getLoadBookings() {
+        return loadBookings;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{" +
+                "created=" + Instant.ofEpochMilli(createdMillis) +
+                ", caregivers=" + names.length +
+                ", availabilities=" + availabilityDays.length +
+                ", vaccines=" + vaccines.length +
+                '}';
+    }
+}
@@ -0,0 +1,359 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.UnitOfWork;
+import scheduler.model.Vaccine;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One atomic dose counter per vaccine, loaded from the Vaccines table at startup.
+ *
+ * In WRITE_THROUGH mode (the default) every change is written to the table immediately as a relative update
+ * and the table stays the authority: reserve still takes its dose with a conditional update inside its
+ * transaction and the counter only mirrors the committed result.
+ *
+ * In WRITE_BEHIND mode the counters are the authority for this process. Doses are allocated with a CAS loop,
+ * changes are coalesced per vaccine and flushed every flush interval as one batch of relative updates
+ * (Doses = Doses + ?). Changes not yet flushed are lost if the process dies, and other processes writing the
+ * same Vaccines rows are not seen until restart, so this mode suits a single scheduler per database.
+ *
+ * When the inventory has not been started every call goes straight to the database.
+ */
+public class VaccineInventory {
+
+    public enum Durability {
+        WRITE_THROUGH,
+        WRITE_BEHIND
+    }
+
+    private static final VaccineInventory defaultInventory = new VaccineInventory();
+
+    private static final String selectAll = "SELECT Name, Doses FROM Vaccines";
+    private static final String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+
+    private volatile ConcurrentHashMap<String, Stock> stocks = null;
+    private volatile Durability durability = Durability.WRITE_THROUGH;
+    private ScheduledExecutorService flusher = null;
+
+    // metrics
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong coalescedChanges = new AtomicLong();
+
+    public static VaccineInventory getDefault() {
+        return defaultInventory;
+    }
+
+    public synchronized void start(Durability durability, long flushMillis) throws SQLException {
+        ConcurrentHashMap<String, Stock> loaded = new ConcurrentHashMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(selectAll);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                loaded.put(resultSet.getString(1), new Stock(resultSet.getInt(2)));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        this.durability = durability;
+        this.stocks = loaded;
+        if (durability == Durability.WRITE_BEHIND && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "inventory-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    flush();
+                } catch (SQLException e) {
+                    System.out.println("Error occurred when flushing doses");
+                    e.printStackTrace();
+                }
+            }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Mirror the doses of a snapshot when the table could not be read (WRITE_THROUGH only, since the table
+     * stays the authority there). Reserve is unaffected; searches show the snapshot's counts until a restart.
+     */
+    public synchronized void start(Snapshot snapshot) {
+        if (stocks != null) {
+            return;
+        }
+        ConcurrentHashMap<String, Stock> restored = new ConcurrentHashMap<>();
+        String[] names = snapshot.getVaccines();
+        int[] doses = snapshot.getDoses();
+        for (int i = 0; i < names.length; i++) {
+            restored.put(names[i], new Stock(doses[i]));
+        }
+        this.durability = Durability.WRITE_THROUGH;
+        this.stocks = restored;
+    }
+
+    /**
+     * Flush outstanding changes and stop the background flusher.
+     */
+    public synchronized void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when flushing doses");
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isLoaded() {
+        return stocks != null;
+    }
+
+    public boolean isWriteBehind() {
+        return stocks != null && durability == Durability.WRITE_BEHIND;
+    }
+
+    /**
+     * Current doses of a vaccine, or null if there is no such vaccine.
+     */
+    public Integer getDoses(String name) throws SQLException {
+        ConcurrentHashMap<String, Stock> current = stocks;
+        if (current == null) {
+            Vaccine vaccine = new Vaccine.VaccineGetter(name).get();
+            return vaccine == null ? null : vaccine.getAvailableDoses();
+        }
+        Stock stock = current.get(name);
+        return stock == null ? null : stock.available.get();
+    }
+
+    /**
+     * Every vaccine and its current doses, ordered by name.
+     */
+    public Map<String, Integer> snapshot() throws SQLException {
+        Map<String, Integer> result = new TreeMap<>();
+        ConcurrentHashMap<String, Stock> current = stocks;
+        if (current == null) {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.openConnection();
+            try {
+                ResultSet resultSet = con.prepareStatement(selectAll).executeQuery();
+                while (resultSet.next()) {
+                    result.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            } finally {
+                cm.closeConnection();
+            }
+            return result;
+        }
+        for (Map.Entry<String, Stock> entry : current.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().available.get());
+        }
+        return result;
+    }
+
+    /**
+     * Add doses to a vaccine, creating the vaccine if it does not exist yet. A new vaccine is always inserted
+     * immediately so that later relative updates have a row to apply to.
+     */
+    public void addDoses(String name, int doses) throws SQLException {
+        UnitOfWork uow = new UnitOfWork();
+        try {
+            addDoses(name, doses, uow);
+            uow.commit();
+        } finally {
+            uow.close();
+        }
+    }
+
+    /**
+     * Add doses as part of a command's unit of work. The counter changes once the unit commits; write-behind
+     * vaccines that are already loaded do not touch the table at all.
+     */
+    public void addDoses(String name, int doses, UnitOfWork uow) {
+        if (doses < 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        ConcurrentHashMap<String, Stock> current = stocks;
+        Stock stock = current == null ? null : current.get(name);
+        if (stock != null && durability == Durability.WRITE_BEHIND) {
+            uow.afterCommit(() -> {
+                stock.available.addAndGet(doses);
+                change(stock, doses);
+            });
+            return;
+        }
+        uow.registerDoses(name, doses);
+        uow.afterCommit(() -> {
+            if (current == null) {
+                return;
+            }
+            if (uow.wasCreated(name)) {
+                if (stock != null) {
+                    // the row had been deleted from the table behind our back
+                    stock.available.set(doses);
+                } else {
+                    current.putIfAbsent(name, new Stock(doses));
+                }
+            } else if (stock != null) {
+                stock.available.addAndGet(doses);
+            } else {
+                // the row was created by another process since we loaded
+                try {
+                    current.putIfAbsent(name, new Stock(getDosesFromTable(name)));
+                } catch (SQLException e) {
+                    System.out.println("Could not load vaccine " + name + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Take one dose without touching the database (WRITE_BEHIND only). Returns false if none are left.
+     */
+    public boolean tryAllocate(String name) {
+        Stock stock = stocks.get(name);
+        if (stock == null) {
+            return false;
+        }
+        int available;
+        do {
+            available = stock.available.get();
+            if (available <= 0) {
+                return false;
+            }
+        } while (!stock.available.compareAndSet(available, available - 1));
+        change(stock, -1);
+        return true;
+    }
+
+    /**
+     * Give back a dose taken with {@link #tryAllocate} whose reservation did not commit.
+     */
+    public void release(String name) {
+        Stock stock = stocks.get(name);
+        if (stock != null) {
+            stock.available.incrementAndGet();
+            change(stock, 1);
+        }
+    }
+
+    /**
+     * Mirror a change that has already been committed to the table (WRITE_THROUGH).
+     */
+    public void recordCommitted(String name, int delta) {
+        ConcurrentHashMap<String, Stock> current = stocks;
+        Stock stock = current == null ? null : current.get(name);
+        if (stock != null) {
+            stock.available.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Mirror a vaccine row that has already been inserted and committed with the given doses.
+     */
+    public void recordCreated(String name, int doses) {
+        ConcurrentHashMap<String, Stock> current = stocks;
+        if (current != null) {
+            current.putIfAbsent(name, new Stock(doses));
+        }
+    }
+
+    private void change(Stock stock, int delta) {
+        if (stock.unflushed.getAndAdd(delta) != 0) {
+            coalescedChanges.incrementAndGet();
+        }
+    }
+
+    /**
+     * Write every coalesced change to the table in one batch. Changes that fail to flush are kept for the
+     * next attempt.
+     */
+    public void flush() throws SQLException {
+        ConcurrentHashMap<String, Stock> current = stocks;
+        if (current == null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        List<Integer> deltas = new ArrayList<>();
+        for (Map.Entry<String, Stock> entry : current.entrySet()) {
+            int delta = entry.getValue().unflushed.getAndSet(0);
+            if (delta != 0) {
+                names.add(entry.getKey());
+                deltas.add(delta);
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(addDoses);
+            for (int i = 0; i < names.size(); i++) {
+                statement.setInt(1, deltas.get(i));
+                statement.setString(2, names.get(i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+            flushes.incrementAndGet();
+            flushedRows.addAndGet(names.size());
+        } catch (SQLException e) {
+            con.rollback();
+            for (int i = 0; i < names.size(); i++) {
+                current.get(names.get(i)).unflushed.addAndGet(deltas.get(i));
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private int getDosesFromTable(String name) throws SQLException {
+        Vaccine vaccine = new Vaccine.VaccineGetter(name).get();
+        return vaccine == null ? 0 : vaccine.getAvailableDoses();
+    }
+
+    // Metrics
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getFlushedRowCount() {
+        return flushedRows.get();
+    }
+
+    // changes folded into a delta that was already waiting to be flushed
+    public long getCoalescedChangeCount() {
+        return coalescedChanges.get();
+    }
+
+    private static class Stock {
+        private final AtomicInteger available;
+        private final AtomicInteger unflushed = new AtomicInteger();
+
+        private Stock(int available) {
+            this.available = new AtomicInteger(available);
+        }
+    }
+}
@@ -1,39 +1,200 @@
 package scheduler.db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
+/**
+ * Hands out pooled connections. Writes, and reads that must see them, use the primary pool; read-only commands
+ * can ask for a read connection, which comes from the replica pool when one is configured and the
+ * {@link ReplicaRouter} says the replica is current enough for the user, and from the primary otherwise.
+ */
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    // the pool shared by every ConnectionManager in this JVM, created on first use
+    private static volatile ConnectionPool pool = null;
+    // the replica pool, created on first use if -Dscheduler.db.readUrl is set
+    private static volatile ConnectionPool readPool = null;
+    private static volatile boolean readPoolChecked = false;
 
     private Connection con = null;
 
-    public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (ConnectionManager.class) {
+                p = pool;
+                if (p == null) {
+                    p = createPool();
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    // the shared pool if one has been created, without creating it
+    public static ConnectionPool currentPool() {
+        return pool;
+    }
+
+    /**
+     * Replace the shared pool, e.g. with one pointing at a local H2 database. The old pool is shut down.
+     */
+    public static synchronized void setPool(ConnectionPool newPool) {
+        ConnectionPool old = pool;
+        pool = newPool;
+        if (old != null && old != newPool) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * The replica pool, or null if no replica is configured.
+     */
+    public static ConnectionPool getReadPool() {
+        if (!readPoolChecked) {
+            synchronized (ConnectionManager.class) {
+                if (!readPoolChecked) {
+                    String readUrl = setting("scheduler.db.readUrl", "DBReadUrl", null);
+                    if (readUrl != null) {
+                        readPool = createPool(readUrl,
+                                setting("scheduler.db.readUser", null, setting("scheduler.db.user", "UserID", null)),
+                                setting("scheduler.db.readPassword", null,
+                                        setting("scheduler.db.password", "Password", null)));
+                    }
+                    readPoolChecked = true;
+                }
+            }
         }
+        return readPool;
+    }
+
+    // the replica pool if one has been created, without creating it
+    public static ConnectionPool currentReadPool() {
+        return readPool;
+    }
+
+    public static boolean hasReadPool() {
+        return getReadPool() != null;
+    }
+
+    /**
+     * Replace the replica pool, e.g. with one pointing at a second local H2 database; null removes it.
+     * The old replica pool is shut down.
+     */
+    public static synchronized void setReadPool(ConnectionPool newPool) {
+        ConnectionPool old = readPool;
+        readPool = newPool;
+        readPoolChecked = true;
+        if (old != null && old != newPool) {
+            old.shutdown();
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (readPool != null) {
+            readPool.shutdown();
+            readPool = null;
+        }
+        readPoolChecked = false;
+    }
+
+    // The JDBC URL defaults to the Azure database named by the Server/DBName environment variables and can be
+    // overridden with -Dscheduler.db.url (or the DBUrl environment variable), e.g. jdbc:h2:mem:scheduler
+    private static ConnectionPool createPool() {
+        String connectionUrl = setting("scheduler.db.url", "DBUrl", null);
+        if (connectionUrl == null) {
+            connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+                    ".database.windows.net:1433;database=" + System.getenv("DBName");
+        }
+        return createPool(connectionUrl, setting("scheduler.db.user", "UserID", null),
+                setting("scheduler.db.password", "Password", null));
+    }
+
+    private static ConnectionPool createPool(String connectionUrl, String userName, String userPass) {
+        if (connectionUrl.startsWith("jdbc:sqlserver:")) {
+            try {
+                Class.forName(driverName);
+            } catch (ClassNotFoundException e) {
+                System.out.println(e.toString());
+            }
+        }
+        return new ConnectionPool.PoolBuilder(connectionUrl, userName, userPass)
+                .minSize(intSetting("scheduler.pool.min", 1))
+                .maxSize(intSetting("scheduler.pool.max", 10))
+                .borrowTimeoutMillis(intSetting("scheduler.pool.borrowTimeoutMillis", 30_000))
+                .idleTimeoutMillis(intSetting("scheduler.pool.idleTimeoutMillis", 10 * 60_000))
+                .leakThresholdMillis(intSetting("scheduler.pool.leakThresholdMillis", 60_000))
+                .statementCacheSize(intSetting("scheduler.pool.statementCacheSize", 64))
+                .build();
+    }
+
+    private static String setting(String property, String env, String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null && env != null) {
+            value = System.getenv(env);
+        }
+        return value == null ? defaultValue : value;
+    }
+
+    private static int intSetting(String property, int defaultValue) {
+        return Integer.parseInt(setting(property, null, Integer.toString(defaultValue)));
     }
 
     public Connection createConnection() {
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            con = getPool().borrow();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return con;
+    }
+
+    // like createConnection(), but reports a failure to the caller instead of returning null
+    public Connection openConnection() throws SQLException {
+        con = getPool().borrow();
+        return con;
+    }
+
+    /**
+     * A connection for a read-only command on behalf of the user (null for reads not tied to one user's writes).
+     * Falls back to the primary if the replica is behind, has not seen the user's writes yet, or is unreachable.
+     */
+    public Connection openReadConnection(String user) throws SQLException {
+        ConnectionPool replica = getReadPool();
+        if (replica != null && ReplicaRouter.getDefault().useReplica(user)) {
+            try {
+                con = replica.borrow();
+                return con;
+            } catch (SQLException e) {
+                System.out.println("Replica unavailable, reading from the primary: " + e.getMessage());
+            }
+        }
+        return openConnection();
+    }
+
+    // like openReadConnection(), but prints a failure and returns null like createConnection()
+    public Connection createReadConnection(String user) {
+        try {
+            return openReadConnection(user);
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return con;
     }
 
+    // returns the connection to the pool rather than closing the physical connection
     public void closeConnection() {
         try {
-            this.con.close();
+            if (this.con != null) {
+                this.con.close();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,421 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * Idle connections are kept in a LIFO deque so the most recently used (and most likely still alive) one is
+ * handed out first. Connections are validated on borrow when they have been idle for a while, idle connections
+ * above the minimum size are evicted by a background housekeeper, and connections held longer than the leak
+ * threshold are reported together with the stack trace of the code that borrowed them. Each connection keeps
+ * its own cache of prepared statements, closed together with the connection.
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String userName;
+    private final String userPass;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIdleMillis;
+    private final int validationTimeoutSeconds;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean shutdown = false;
+
+    // metrics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementBypasses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    private ConnectionPool(PoolBuilder builder) {
+        this.url = builder.url;
+        this.userName = builder.userName;
+        this.userPass = builder.userPass;
+        this.minSize = builder.minSize;
+        this.maxSize = builder.maxSize;
+        this.borrowTimeoutMillis = builder.borrowTimeoutMillis;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.validationIdleMillis = builder.validationIdleMillis;
+        this.validationTimeoutSeconds = builder.validationTimeoutSeconds;
+        this.leakThresholdMillis = builder.leakThresholdMillis;
+        this.statementCacheSize = builder.statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, builder.housekeepingMillis,
+                builder.housekeepingMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Borrow a connection, waiting up to the borrow timeout when the pool is exhausted.
+     * Closing the returned connection gives it back to the pool.
+     */
+    public Connection borrow() throws SQLException {
+        if (shutdown) {
+            throw new SQLException("Connection pool has been shut down");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire()) {
+                waits.incrementAndGet();
+                if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeouts.incrementAndGet();
+                    throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                            + "ms waiting for a connection (" + borrowed.size() + " in use)");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        totalWaitNanos.addAndGet(System.nanoTime() - start);
+
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) {
+                pc = create();
+            }
+            borrowed.add(pc);
+            borrows.incrementAndGet();
+            Metrics.connectionBorrowed();
+            return pc.open(leakThresholdMillis > 0);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Pop idle connections until one passes validation, or return null if none are left
+    private PooledConnection takeIdle() {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pc.getLastUsedAt() < validationIdleMillis || isValid(pc)) {
+                return pc;
+            }
+            validationFailures.incrementAndGet();
+            destroy(pc);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.getPhysical().isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection con = DriverManager.getConnection(url, userName, userPass);
+        total.incrementAndGet();
+        created.incrementAndGet();
+        return new PooledConnection(this, con);
+    }
+
+    void release(PooledConnection pc) {
+        if (!borrowed.remove(pc)) {
+            return;
+        }
+        try {
+            pc.reset();
+            if (shutdown) {
+                destroy(pc);
+            } else {
+                idle.offerFirst(pc);
+            }
+        } catch (SQLException e) {
+            // a connection that cannot be reset is not safe to hand out again
+            destroy(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pc) {
+        total.decrementAndGet();
+        destroyed.incrementAndGet();
+        pc.closePhysical();
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        // evict from the tail of the deque, which holds the connections idle the longest
+        PooledConnection pc;
+        while (total.get() > minSize && (pc = idle.peekLast()) != null
+                && now - pc.getLastUsedAt() > idleTimeoutMillis) {
+            if (idle.removeLastOccurrence(pc)) {
+                evictions.incrementAndGet();
+                destroy(pc);
+            }
+        }
+
+        // top the pool back up to its minimum size
+        while (!shutdown && total.get() < minSize && permits.tryAcquire()) {
+            try {
+                idle.offerLast(create());
+            } catch (SQLException e) {
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+
+        if (leakThresholdMillis > 0) {
+            for (PooledConnection b : borrowed) {
+                if (!b.isLeakReported() && now - b.getBorrowedAt() > leakThresholdMillis) {
+                    b.markLeakReported();
+                    leaks.incrementAndGet();
+                    System.out.println("Possible connection leak: held for " + (now - b.getBorrowedAt()) + "ms");
+                    if (b.getBorrowStack() != null) {
+                        b.getBorrowStack().printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Close every idle connection and stop the housekeeper; borrowed connections are closed when returned.
+     */
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+    }
+
+    // Metrics
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getLeakCount() {
+        return leaks.get();
+    }
+
+    void recordStatementHit() {
+        statementHits.incrementAndGet();
+    }
+
+    void recordStatementMiss() {
+        statementMisses.incrementAndGet();
+    }
+
+    void recordStatementBypass() {
+        statementBypasses.incrementAndGet();
+    }
+
+    void recordStatementEviction() {
+        statementEvictions.incrementAndGet();
+    }
+
+    public long getStatementHitCount() {
+        return statementHits.get();
+    }
+
+    public long getStatementMissCount() {
+        return statementMisses.get();
+    }
+
+    // prepares not served from the cache because the cached statement still had an open result set
+    public long getStatementBypassCount() {
+        return statementBypasses.get();
+    }
+
+    public long getStatementEvictionCount() {
+        return statementEvictions.get();
+    }
+
+    public double getStatementHitRatio() {
+        long hits = statementHits.get();
+        long lookups = hits + statementMisses.get() + statementBypasses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public double getAverageWaitMillis() {
+        long n = borrows.get();
+        return n == 0 ? 0 : totalWaitNanos.get() / 1e6 / n;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "total=" + getTotalConnections() +
+                ", active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", created=" + getCreatedCount() +
+                ", borrows=" + getBorrowCount() +
+                ", waits=" + getWaitCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", validationFailures=" + getValidationFailureCount() +
+                ", evictions=" + getEvictionCount() +
+                ", leaks=" + getLeakCount() +
+                ", statementHits=" + getStatementHitCount() +
+                ", statementMisses=" + getStatementMissCount() +
+                ", statementEvictions=" + getStatementEvictionCount() +
+                '}';
+    }
+
+    public static class PoolBuilder {
+        private final String url;
+        private final String userName;
+        private final String userPass;
+        private int minSize = 1;
+        private int maxSize = 10;
+        private long borrowTimeoutMillis = 30_000;
+        private long idleTimeoutMillis = 10 * 60_000;
+        private long validationIdleMillis = 1_000;
+        private int validationTimeoutSeconds = 2;
+        private long leakThresholdMillis = 60_000;
+        private long housekeepingMillis = 30_000;
+        private int statementCacheSize = 64;
+
+        public PoolBuilder(String url, String userName, String userPass) {
+            this.url = url;
+            this.userName = userName;
+            this.userPass = userPass;
+        }
+
+        public PoolBuilder minSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public PoolBuilder maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public PoolBuilder borrowTimeoutMillis(long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+
+        public PoolBuilder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        // connections idle for less than this are handed out without an isValid() round trip
+        public PoolBuilder validationIdleMillis(long validationIdleMillis) {
+            this.validationIdleMillis = validationIdleMillis;
+            return this;
+        }
+
+        public PoolBuilder validationTimeoutSeconds(int validationTimeoutSeconds) {
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+            return this;
+        }
+
+        // 0 disables leak detection and the stack capture on every borrow
+        public PoolBuilder leakThresholdMillis(long leakThresholdMillis) {
+            this.leakThresholdMillis = leakThresholdMillis;
+            return this;
+        }
+
+        public PoolBuilder housekeepingMillis(long housekeepingMillis) {
+            this.housekeepingMillis = housekeepingMillis;
+            return this;
+        }
+
+        // prepared statements cached per connection; 0 disables the cache
+        public PoolBuilder statementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        public ConnectionPool build() {
+            if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+                throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+            }
+            if (statementCacheSize < 0) {
+                throw new IllegalArgumentException("Invalid statement cache size: " + statementCacheSize);
+            }
+            return new ConnectionPool(this);
+        }
+    }
+}
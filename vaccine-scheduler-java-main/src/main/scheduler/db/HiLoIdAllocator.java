@@ -0,0 +1,70 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reserves ids a block at a time and hands them out in-process.
+ *
+ * The backing sequence must be declared with INCREMENT BY equal to the block size: each NEXT VALUE is the
+ * first id of a block nobody else (in this or any other JVM) will receive. Ids within the current block are
+ * handed out with a single getAndIncrement; only the thread that exhausts a block goes to the database.
+ * Ids of a block that is not used up before shutdown are skipped, so ids are unique but not gap-free.
+ */
+public class HiLoIdAllocator implements IdAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private static final Block EMPTY = new Block(0, 0);
+
+    private final String nextValue;
+    private final int blockSize;
+    private volatile Block block = EMPTY;
+
+    public HiLoIdAllocator(String sequenceName, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.nextValue = "SELECT NEXT VALUE FOR " + sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public int nextId(Connection con) throws SQLException {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return Math.toIntExact(id);
+            }
+            synchronized (this) {
+                // another thread may have refilled while we waited for the lock
+                if (block == current) {
+                    block = fetchBlock(con);
+                }
+            }
+        }
+    }
+
+    private Block fetchBlock(Connection con) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(nextValue);
+        ResultSet resultSet = statement.executeQuery();
+        if (!resultSet.next()) {
+            throw new SQLException("Sequence returned no value");
+        }
+        long start = resultSet.getLong(1);
+        return new Block(start, start + blockSize);
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
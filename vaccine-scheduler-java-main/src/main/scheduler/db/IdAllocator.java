@@ -0,0 +1,30 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Hands out unique ids for new rows without scanning the table they go into.
+ */
+public interface IdAllocator {
+
+    /**
+     * Return the next id. The connection is only used when the allocator has to go to the database;
+     * it may be in the middle of a transaction.
+     */
+    int nextId(Connection con) throws SQLException;
+
+    /**
+     * The allocator used for Appointment ids, chosen with -Dscheduler.id.allocator=hilo|sequence
+     * (hilo by default). Both are backed by sequences defined in create.sql.
+     */
+    static IdAllocator forAppointments() {
+        String kind = System.getProperty("scheduler.id.allocator", "hilo");
+        if (kind.equals("sequence")) {
+            return new SequenceIdAllocator("AppointmentIdSeq");
+        } else if (kind.equals("hilo")) {
+            return new HiLoIdAllocator("AppointmentIdBlockSeq", HiLoIdAllocator.DEFAULT_BLOCK_SIZE);
+        }
+        throw new IllegalArgumentException("Unknown id allocator: " + kind);
+    }
+}
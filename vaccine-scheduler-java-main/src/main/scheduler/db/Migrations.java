@@ -0,0 +1,204 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numbered schema changes applied at startup, recorded in the SchemaVersion table.
+ *
+ * create.sql always describes the full current tables, so every migration checks whether its change is
+ * already there before making it: on a database created from the current create.sql the migrations only get
+ * recorded, on an older database they bring the schema forward. Each migration runs in its own transaction
+ * and is recorded in the same transaction, so a failed migration is retried on the next start.
+ */
+public class Migrations {
+
+    private interface Change {
+        void apply(Connection con) throws SQLException;
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final Change change;
+
+        private Migration(int version, String description, Change change) {
+            this.version = version;
+            this.description = description;
+            this.change = change;
+        }
+    }
+
+    private static final String createHistory = "CREATE TABLE SchemaVersion (" +
+            "Version int PRIMARY KEY, Description varchar(255), AppliedAt datetime)";
+    private static final String selectApplied = "SELECT Version FROM SchemaVersion";
+    private static final String recordApplied =
+            "INSERT INTO SchemaVersion (Version, Description, AppliedAt) VALUES (?, ?, CURRENT_TIMESTAMP)";
+
+    // append only: never renumber or edit a migration that has shipped
+    private static final List<Migration> migrations = List.of(
+            new Migration(1, "store the password work factor with each hash", con -> {
+                addColumnIfMissing(con, "Caregivers", "Iterations", "int NOT NULL DEFAULT 10");
+                addColumnIfMissing(con, "Patient", "Iterations", "int NOT NULL DEFAULT 10");
+            }),
+            new Migration(2, "sequences for appointment ids", con -> {
+                // start after the ids handed out by the old MAX(Id) + 1 scheme
+                int next = nextAppointmentId(con);
+                createSequenceIfMissing(con, "AppointmentIdSeq", next, 1);
+                createSequenceIfMissing(con, "AppointmentIdBlockSeq", next, 64);
+            }),
+            new Migration(3, "covering indexes for show_appointments and cancel", con -> {
+                // show_appointments filters on Patient or Caregiver and orders by Id; cancel looks up Id and Patient
+                createIndexIfMissing(con, "IX_Appointment_Patient", "Appointment",
+                        "Patient, Id", "Caregiver, Vaccine, Time");
+                createIndexIfMissing(con, "IX_Appointment_Caregiver", "Appointment",
+                        "Caregiver, Id", "Patient, Vaccine, Time");
+            }),
+            new Migration(4, "waitlist", con -> {
+                if (!tableExists(con, "Waitlist")) {
+                    con.createStatement().execute("CREATE TABLE Waitlist (Id int PRIMARY KEY, " +
+                            "Patient varchar(255) REFERENCES Patient, Vaccine varchar(255), FromDate date, " +
+                            "ToDate date, Priority int NOT NULL DEFAULT 0, JoinedAt datetime)");
+                }
+                createSequenceIfMissing(con, "WaitlistIdSeq", 1, 1);
+                // the matching engine looks entries up by vaccine or by window; show_waitlist by patient
+                createIndexIfMissing(con, "IX_Waitlist_Vaccine", "Waitlist", "Vaccine, Id", "FromDate, ToDate");
+                createIndexIfMissing(con, "IX_Waitlist_Patient", "Waitlist", "Patient, Id", "Vaccine");
+            }),
+            new Migration(5, "replica heartbeat", con -> {
+                if (!tableExists(con, "ReplicaHeartbeat")) {
+                    con.createStatement().execute("CREATE TABLE ReplicaHeartbeat (Source bigint PRIMARY KEY, " +
+                            "Beat bigint NOT NULL)");
+                }
+            }),
+            new Migration(6, "import checkpoints", con -> {
+                if (!tableExists(con, "ImportCheckpoint")) {
+                    con.createStatement().execute("CREATE TABLE ImportCheckpoint (Name varchar(255) PRIMARY KEY, " +
+                            "Line bigint NOT NULL)");
+                }
+            })
+    );
+
+    /**
+     * Apply every migration not yet recorded. Returns the number applied.
+     */
+    public static int migrate() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            if (!tableExists(con, "SchemaVersion")) {
+                con.createStatement().execute(createHistory);
+            }
+            List<Integer> applied = new ArrayList<>();
+            ResultSet resultSet = con.prepareStatement(selectApplied).executeQuery();
+            while (resultSet.next()) {
+                applied.add(resultSet.getInt(1));
+            }
+
+            int count = 0;
+            for (Migration migration : migrations) {
+                if (applied.contains(migration.version)) {
+                    continue;
+                }
+                con.setAutoCommit(false);
+                try {
+                    migration.change.apply(con);
+                    PreparedStatement record = con.prepareStatement(recordApplied);
+                    record.setInt(1, migration.version);
+                    record.setString(2, migration.description);
+                    record.executeUpdate();
+                    con.commit();
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw new SQLException("Migration " + migration.version + " (" + migration.description
+                            + ") failed", e);
+                } finally {
+                    con.setAutoCommit(true);
+                }
+                System.out.println("Applied migration " + migration.version + ": " + migration.description);
+                count++;
+            }
+            return count;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static int getLatestVersion() {
+        return migrations.get(migrations.size() - 1).version;
+    }
+
+    private static boolean isSqlServer(Connection con) throws SQLException {
+        return con.getMetaData().getDatabaseProductName().contains("SQL Server");
+    }
+
+    // metadata lookups are case sensitive on some databases, so try the name as written and upper case
+    private static boolean tableExists(Connection con, String table) throws SQLException {
+        DatabaseMetaData meta = con.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase()}) {
+            if (meta.getTables(null, null, name, null).next()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addColumnIfMissing(Connection con, String table, String column, String definition)
+            throws SQLException {
+        DatabaseMetaData meta = con.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase()}) {
+            if (meta.getColumns(null, null, name, column).next()
+                    || meta.getColumns(null, null, name, column.toUpperCase()).next()) {
+                return;
+            }
+        }
+        con.createStatement().execute("ALTER TABLE " + table + " ADD " + column + " " + definition);
+    }
+
+    private static int nextAppointmentId(Connection con) throws SQLException {
+        ResultSet resultSet = con.createStatement().executeQuery("SELECT MAX(Id) FROM Appointment");
+        resultSet.next();
+        int max = resultSet.getInt(1);
+        return resultSet.wasNull() ? 0 : max + 1;
+    }
+
+    private static void createSequenceIfMissing(Connection con, String sequence, int start, int increment)
+            throws SQLException {
+        String exists = isSqlServer(con)
+                ? "SELECT 1 FROM sys.sequences WHERE name = ?"
+                : "SELECT 1 FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = UPPER(?)";
+        PreparedStatement statement = con.prepareStatement(exists);
+        statement.setString(1, sequence);
+        if (statement.executeQuery().next()) {
+            return;
+        }
+        con.createStatement().execute("CREATE SEQUENCE " + sequence + " AS int START WITH " + start
+                + " INCREMENT BY " + increment);
+    }
+
+    // SQL Server gets a real covering index with INCLUDE; databases without INCLUDE get the included columns
+    // appended to the key, which covers the same queries
+    private static void createIndexIfMissing(Connection con, String index, String table, String keys,
+                                             String included) throws SQLException {
+        DatabaseMetaData meta = con.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase()}) {
+            ResultSet indexes = meta.getIndexInfo(null, null, name, false, false);
+            while (indexes.next()) {
+                String existing = indexes.getString("INDEX_NAME");
+                if (existing != null && existing.equalsIgnoreCase(index)) {
+                    return;
+                }
+            }
+        }
+        String sql = isSqlServer(con)
+                ? "CREATE INDEX " + index + " ON " + table + " (" + keys + ") INCLUDE (" + included + ")"
+                : "CREATE INDEX " + index + " ON " + table + " (" + keys + ", " + included + ")";
+        con.createStatement().execute(sql);
+    }
+}
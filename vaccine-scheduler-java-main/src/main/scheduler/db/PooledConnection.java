@@ -0,0 +1,198 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}, together with the bookkeeping the pool needs.
+ * Callers never see the physical connection: every borrow hands out a fresh proxy whose close() returns
+ * the connection to the pool instead of closing the socket. Single-argument prepareStatement calls are served
+ * from the connection's {@link StatementCache} when the pool has one.
+ */
+class PooledConnection {
+    private final ConnectionPool pool;
+    private final Connection physical;
+    private final long createdAt;
+
+    // statements opened through the current handle, closed when the connection goes back to the pool
+    private final List<Statement> statements = new ArrayList<>();
+    private final StatementCache statementCache;
+
+    private volatile long lastUsedAt;
+    private volatile long borrowedAt;
+    private volatile Throwable borrowStack;
+    private volatile boolean leakReported;
+    private Handle handle;
+
+    PooledConnection(ConnectionPool pool, Connection physical) {
+        this.pool = pool;
+        this.physical = physical;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = this.createdAt;
+        this.statementCache = pool.getStatementCacheSize() > 0
+                ? new StatementCache(pool, pool.getStatementCacheSize()) : null;
+    }
+
+    Connection getPhysical() {
+        return physical;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    Throwable getBorrowStack() {
+        return borrowStack;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void markLeakReported() {
+        leakReported = true;
+    }
+
+    // Hand out a new proxy for this borrow; closing an older proxy twice must not release the connection again
+    synchronized Connection open(boolean captureStack) {
+        borrowedAt = System.currentTimeMillis();
+        borrowStack = captureStack ? new Throwable("Connection borrowed here") : null;
+        leakReported = false;
+        handle = new Handle();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handle);
+    }
+
+    // Undo anything the borrower left behind so the next borrower gets a clean connection
+    synchronized void reset() throws SQLException {
+        handle = null;
+        for (Statement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // the statement is discarded either way
+            }
+        }
+        statements.clear();
+        if (statementCache != null) {
+            statementCache.reset();
+        }
+        if (!physical.getAutoCommit()) {
+            physical.rollback();
+            physical.setAutoCommit(true);
+        }
+        physical.clearWarnings();
+        borrowStack = null;
+        lastUsedAt = System.currentTimeMillis();
+    }
+
+    void closePhysical() {
+        if (statementCache != null) {
+            statementCache.closeAll();
+        }
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void track(Object result) {
+        if (result instanceof Statement) {
+            statements.add((Statement) result);
+        }
+    }
+
+    // Hand out statements through a proxy that charges their executions to the running command
+    private static Object countRoundTrips(Object statement, Class<?> type) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.startsWith("execute")) {
+                Metrics.roundTrip();
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private class Handle implements InvocationHandler {
+        private boolean closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                close();
+                return null;
+            } else if (name.equals("isClosed")) {
+                return closed || physical.isClosed();
+            } else if (name.equals("unwrap") && args[0] == PooledConnection.class) {
+                return PooledConnection.this;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled" + physical;
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+            if (statementCache != null && name.equals("prepareStatement") && args.length == 1) {
+                PreparedStatement cached = statementCache.prepare(physical, (String) args[0]);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            if (name.equals("commit") || name.equals("rollback")) {
+                Metrics.roundTrip();
+            }
+            try {
+                Object result = method.invoke(physical, args);
+                track(result);
+                if (result instanceof Statement && method.getReturnType().isInterface()) {
+                    return countRoundTrips(result, method.getReturnType());
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void close() {
+            synchronized (PooledConnection.this) {
+                if (closed || handle != this) {
+                    return;
+                }
+                closed = true;
+            }
+            pool.release(PooledConnection.this);
+        }
+    }
+}
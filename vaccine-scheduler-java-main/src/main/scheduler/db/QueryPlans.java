@@ -0,0 +1,84 @@
+package scheduler.db;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prints the estimated plan of every query the scheduler runs, without executing them. Used around
+ * migrations to see whether an index is picked up.
+ */
+public class QueryPlans {
+
+    // the scheduler's queries with representative literals in place of the parameters
+    private static final Map<String, String> queries = new LinkedHashMap<>();
+
+    static {
+        queries.put("username exists (patient)", "SELECT * FROM Patient WHERE Username = 'patient0'");
+        queries.put("username exists (caregiver)", "SELECT * FROM Caregivers WHERE Username = 'caregiver0'");
+        queries.put("login_patient", "SELECT Salt, Hash, Iterations FROM Patient WHERE Username = 'patient0'");
+        queries.put("reserve candidates",
+                "SELECT Username FROM Availabilities WHERE Time = '2030-01-01' ORDER BY Username ASC");
+        queries.put("search_caregiver_schedule (counts)", "SELECT Time, COUNT(*) FROM Availabilities "
+                + "WHERE Time BETWEEN '2030-01-01' AND '2030-03-01' GROUP BY Time ORDER BY Time");
+        queries.put("search_caregiver_schedule (caregivers)", "SELECT Time, Username FROM Availabilities "
+                + "WHERE Time BETWEEN '2030-01-01' AND '2030-03-01' ORDER BY Time, Username");
+        queries.put("reserve claim",
+                "DELETE FROM Availabilities WHERE Time = '2030-01-01' AND Username = 'caregiver0'");
+        queries.put("reserve dose", "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = 'Pfizer' AND Doses > 0");
+        queries.put("cancel lookup", "SELECT * FROM Appointment AS A WHERE A.Id = 0 AND A.Patient = 'patient0'");
+        queries.put("show_appointments (patient)", "SELECT A.Id, Vaccine, A.Time, A.Caregiver FROM Appointment A "
+                + "WHERE Patient = 'patient0' ORDER BY A.Id");
+        queries.put("show_appointments (caregiver)", "SELECT A.Id, Vaccine, A.Time, A.Patient FROM Appointment A "
+                + "WHERE Caregiver = 'caregiver0' ORDER BY A.Id");
+    }
+
+    public static void print(PrintStream out) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            boolean sqlServer = con.getMetaData().getDatabaseProductName().contains("SQL Server");
+            Statement statement = con.createStatement();
+            for (Map.Entry<String, String> query : queries.entrySet()) {
+                out.println("-- " + query.getKey());
+                if (sqlServer) {
+                    // with SHOWPLAN_TEXT on, statements return their plan instead of running
+                    statement.execute("SET SHOWPLAN_TEXT ON");
+                    try {
+                        printResults(statement, query.getValue(), out);
+                    } finally {
+                        statement.execute("SET SHOWPLAN_TEXT OFF");
+                    }
+                } else {
+                    printResults(statement, "EXPLAIN " + query.getValue(), out);
+                }
+                out.println();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void printResults(Statement statement, String sql, PrintStream out) throws SQLException {
+        boolean isResultSet = statement.execute(sql);
+        while (true) {
+            if (isResultSet) {
+                ResultSet resultSet = statement.getResultSet();
+                ResultSetMetaData meta = resultSet.getMetaData();
+                while (resultSet.next()) {
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        out.println(resultSet.getString(i));
+                    }
+                }
+            } else if (statement.getUpdateCount() == -1) {
+                return;
+            }
+            isResultSet = statement.getMoreResults();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a read may go to the read replica.
+ *
+ * Replica lag is measured with a heartbeat: every interval this process writes an increasing beat number to its
+ * row of the ReplicaHeartbeat table on the primary and reads the row back from the replica. The replica has
+ * caught up to the moment the beat it shows was written, measured on this process's own clock, so the check
+ * needs no clock agreement between the servers. Reads go to the primary while the replica is more than
+ * maxLagMillis behind or its lag is unknown.
+ *
+ * For read-your-writes, commands that change a user's data mark the user. That user's reads stay on the
+ * primary until the replica has caught up past the user's last write.
+ *
+ * With heartbeatMillis of 0 no heartbeat is written and the replica is assumed to be exactly maxLagMillis
+ * behind, e.g. for two local databases standing in for a primary and a replica.
+ */
+public class ReplicaRouter {
+    private static final ReplicaRouter defaultRouter = new ReplicaRouter();
+
+    private static final String insertBeat = "INSERT INTO ReplicaHeartbeat (Source, Beat) VALUES (?, ?)";
+    private static final String updateBeat = "UPDATE ReplicaHeartbeat SET Beat = ? WHERE Source = ?";
+    private static final String selectBeat = "SELECT Beat FROM ReplicaHeartbeat WHERE Source = ?";
+    private static final String deleteBeat = "DELETE FROM ReplicaHeartbeat WHERE Source = ?";
+
+    private final long source = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final AtomicLong beat = new AtomicLong();
+    // beat number -> System.nanoTime() just before it was written, for beats the replica may not show yet
+    private final ConcurrentSkipListMap<Long, Long> beatTimes = new ConcurrentSkipListMap<>();
+    // user -> System.nanoTime() of the user's last committed write
+    private final ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private volatile boolean running = false;
+    private volatile long maxLagNanos = 0;
+    private volatile long heartbeatMillis = 0;
+    // the primary's state up to this moment is visible on the replica; 0 while unknown
+    private volatile long caughtUpTo = 0;
+    private ScheduledExecutorService heartbeat = null;
+
+    // metrics
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong lagFallbacks = new AtomicLong();
+    private final AtomicLong ownWriteFallbacks = new AtomicLong();
+    private final AtomicLong heartbeatFailures = new AtomicLong();
+
+    public static ReplicaRouter getDefault() {
+        return defaultRouter;
+    }
+
+    /**
+     * Start routing reads to the replica. Until start is called every read goes to the primary.
+     */
+    public synchronized void start(long maxLagMillis, long heartbeatMillis) {
+        if (running) {
+            return;
+        }
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.heartbeatMillis = heartbeatMillis;
+        this.caughtUpTo = 0;
+        if (heartbeatMillis > 0) {
+            heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "replica-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            heartbeat.scheduleWithFixedDelay(this::beat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+        running = true;
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            try {
+                heartbeat.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            heartbeat = null;
+            removeBeat();
+        }
+        beatTimes.clear();
+        lastWrites.clear();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Record that the user's data just changed on the primary.
+     */
+    public void markWrite(String user) {
+        if (running && user != null) {
+            lastWrites.put(user, System.nanoTime());
+        }
+    }
+
+    /**
+     * True if a read on behalf of the user (or of nobody in particular, for null) may be served by the replica.
+     */
+    public boolean useReplica(String user) {
+        if (!running) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long visible = heartbeatMillis > 0 ? caughtUpTo : now - maxLagNanos;
+        if (visible == 0 || now - visible > maxLagNanos) {
+            lagFallbacks.incrementAndGet();
+            return false;
+        }
+        if (user != null) {
+            Long lastWrite = lastWrites.get(user);
+            if (lastWrite != null) {
+                if (lastWrite - visible >= 0) {
+                    ownWriteFallbacks.incrementAndGet();
+                    return false;
+                }
+                // the replica has the write now, so the mark is no longer needed
+                lastWrites.remove(user, lastWrite);
+            }
+        }
+        replicaReads.incrementAndGet();
+        return true;
+    }
+
+    private void beat() {
+        try {
+            long next = beat.incrementAndGet();
+            // taken before the write, so everything committed before this moment is older than the beat
+            long writtenAt = System.nanoTime();
+            writeBeat(next);
+            beatTimes.put(next, writtenAt);
+            long shown = readBeat();
+            Long shownAt = beatTimes.get(shown);
+            if (shownAt != null) {
+                caughtUpTo = shownAt;
+                // older beats can no longer be the newest one the replica shows
+                beatTimes.headMap(shown).clear();
+            }
+        } catch (SQLException e) {
+            // the replica (or the primary) is unreachable, which the growing lag already reports
+            heartbeatFailures.incrementAndGet();
+        }
+    }
+
+    private void writeBeat(long value) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement update = con.prepareStatement(updateBeat);
+            update.setLong(1, value);
+            update.setLong(2, source);
+            if (update.executeUpdate() == 0) {
+                PreparedStatement insert = con.prepareStatement(insertBeat);
+                insert.setLong(1, source);
+                insert.setLong(2, value);
+                insert.executeUpdate();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the newest beat the replica shows, or 0 if it has none from this process yet
+    private long readBeat() throws SQLException {
+        Connection con = ConnectionManager.getReadPool().borrow();
+        try {
+            PreparedStatement select = con.prepareStatement(selectBeat);
+            select.setLong(1, source);
+            ResultSet resultSet = select.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            con.close();
+        }
+    }
+
+    private void removeBeat() {
+        ConnectionManager cm = new ConnectionManager();
+        try {
+            PreparedStatement delete = cm.openConnection().prepareStatement(deleteBeat);
+            delete.setLong(1, source);
+            delete.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println("Could not remove the replica heartbeat: " + e.getMessage());
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Metrics
+    // how far behind the primary the replica was at the last heartbeat, or -1 if unknown
+    public long getLagMillis() {
+        if (!running) {
+            return -1;
+        }
+        if (heartbeatMillis <= 0) {
+            return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+        }
+        long visible = caughtUpTo;
+        return visible == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - visible);
+    }
+
+    public long getReplicaReadCount() {
+        return replicaReads.get();
+    }
+
+    public long getLagFallbackCount() {
+        return lagFallbacks.get();
+    }
+
+    public long getOwnWriteFallbackCount() {
+        return ownWriteFallbacks.get();
+    }
+
+    public long getHeartbeatFailureCount() {
+        return heartbeatFailures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaRouter{" +
+                "running=" + running +
+                ", lagMillis=" + getLagMillis() +
+                ", replicaReads=" + getReplicaReadCount() +
+                ", lagFallbacks=" + getLagFallbackCount() +
+                ", ownWriteFallbacks=" + getOwnWriteFallbackCount() +
+                ", heartbeatFailures=" + getHeartbeatFailureCount() +
+                '}';
+    }
+}
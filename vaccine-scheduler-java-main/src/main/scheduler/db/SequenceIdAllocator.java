@@ -0,0 +1,27 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * One database round trip per id, straight from a sequence.
+ */
+public class SequenceIdAllocator implements IdAllocator {
+    private final String nextValue;
+
+    public SequenceIdAllocator(String sequenceName) {
+        this.nextValue = "SELECT NEXT VALUE FOR " + sequenceName;
+    }
+
+    @Override
+    public int nextId(Connection con) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(nextValue);
+        ResultSet resultSet = statement.executeQuery();
+        if (!resultSet.next()) {
+            throw new SQLException("Sequence returned no value");
+        }
+        return resultSet.getInt(1);
+    }
+}
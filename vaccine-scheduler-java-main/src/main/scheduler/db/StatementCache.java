@@ -0,0 +1,226 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The prepared statements of one pooled connection, keyed by SQL text and evicted least recently used first.
+ *
+ * Callers get a proxy whose close() leaves the statement open for the next borrower. When the connection goes
+ * back to the pool the statements used during the borrow have their result sets closed, their parameters
+ * cleared and every setting a caller can change (limits, fetch size and direction, timeouts) put back to the
+ * value the driver prepared it with. A statement whose last result set is still open is not handed out a second time, since
+ * executing it again would close that result set under its reader; the caller gets an uncached statement
+ * instead.
+ */
+class StatementCache {
+    private final ConnectionPool pool;
+    private final int capacity;
+
+    private final LinkedHashMap<String, Entry> entries;
+    // entries handed out since the last reset, and evicted entries that cannot be closed until then
+    private final List<Entry> used = new ArrayList<>();
+    private final List<Entry> retired = new ArrayList<>();
+
+    StatementCache(ConnectionPool pool, int capacity) {
+        this.pool = pool;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                pool.recordStatementEviction();
+                if (eldest.getValue().used) {
+                    retired.add(eldest.getValue());
+                } else {
+                    eldest.getValue().closeQuietly();
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The cached statement for this SQL, preparing it on a miss, or null if the cached one is still busy.
+     */
+    synchronized PreparedStatement prepare(Connection physical, String sql) throws SQLException {
+        Entry entry = entries.get(sql);
+        if (entry != null) {
+            if (entry.hasOpenResult()) {
+                pool.recordStatementBypass();
+                return null;
+            }
+            pool.recordStatementHit();
+        } else {
+            pool.recordStatementMiss();
+            entry = new Entry(physical.prepareStatement(sql));
+            entries.put(sql, entry);
+        }
+        if (!entry.used) {
+            entry.used = true;
+            used.add(entry);
+        }
+        return entry.proxy;
+    }
+
+    // Make every statement used during the borrow safe to hand to the next borrower
+    synchronized void reset() {
+        for (Entry entry : used) {
+            entry.used = false;
+            if (retired.contains(entry)) {
+                entry.closeQuietly();
+                continue;
+            }
+            try {
+                entry.clear();
+            } catch (SQLException e) {
+                // not reusable, prepare it again next time
+                entry.closeQuietly();
+                entries.values().remove(entry);
+            }
+        }
+        used.clear();
+        retired.clear();
+    }
+
+    synchronized void closeAll() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().closeQuietly();
+            iterator.remove();
+        }
+        for (Entry entry : retired) {
+            entry.closeQuietly();
+        }
+        used.clear();
+        retired.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry implements InvocationHandler {
+        private final PreparedStatement physical;
+        private final PreparedStatement proxy;
+        private ResultSet lastResult = null;
+        private boolean used = false;
+
+        // settings as prepared, restored by clear
+        private final int fetchSize;
+        private final int fetchDirection;
+        private final int maxFieldSize;
+        private final boolean poolable;
+        // settings that cannot be read back, so only a borrow that changed them resets them
+        private boolean escapeProcessingChanged = false;
+        private boolean cursorNameChanged = false;
+
+        private Entry(PreparedStatement physical) throws SQLException {
+            this.physical = physical;
+            this.fetchSize = physical.getFetchSize();
+            this.fetchDirection = physical.getFetchDirection();
+            this.maxFieldSize = physical.getMaxFieldSize();
+            this.poolable = physical.isPoolable();
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                // stays open in the cache
+                return null;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Cached" + physical;
+            }
+            if (name.startsWith("execute")) {
+                Metrics.roundTrip();
+            } else if (name.equals("setEscapeProcessing")) {
+                escapeProcessingChanged = true;
+            } else if (name.equals("setCursorName")) {
+                cursorNameChanged = true;
+            }
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof ResultSet) {
+                    lastResult = (ResultSet) result;
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private boolean hasOpenResult() {
+            try {
+                return lastResult != null && !lastResult.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        private void clear() throws SQLException {
+            if (lastResult != null) {
+                lastResult.close();
+                lastResult = null;
+            }
+            physical.clearParameters();
+            physical.clearBatch();
+            physical.clearWarnings();
+            if (cursorNameChanged || physical.isCloseOnCompletion()) {
+                // neither can be undone
+                throw new SQLException("Statement settings cannot be reset");
+            }
+            if (physical.getMaxRows() != 0) {
+                physical.setMaxRows(0);
+            }
+            if (physical.getQueryTimeout() != 0) {
+                physical.setQueryTimeout(0);
+            }
+            if (physical.getFetchSize() != fetchSize) {
+                physical.setFetchSize(fetchSize);
+            }
+            if (physical.getFetchDirection() != fetchDirection) {
+                physical.setFetchDirection(fetchDirection);
+            }
+            if (physical.getMaxFieldSize() != maxFieldSize) {
+                physical.setMaxFieldSize(maxFieldSize);
+            }
+            if (physical.isPoolable() != poolable) {
+                physical.setPoolable(poolable);
+            }
+            if (escapeProcessingChanged) {
+                physical.setEscapeProcessing(true);
+                escapeProcessingChanged = false;
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+                // the statement is discarded either way
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package scheduler.db;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the rows one command creates, changes and deletes and writes them in a single transaction.
+ *
+ * Reads the command needs go through {@link #connection()}, which opens the transaction the changes are flushed
+ * in. Nothing is written until {@link #commit()}, which sends every kind of change as one JDBC batch, ordered so
+ * that referenced rows exist before the rows that reference them and appointments are deleted before their
+ * availability is given back, and then commits once. Work that must only happen once the changes are durable
+ * (cache updates, events) is registered with {@link #afterCommit(Runnable)}.
+ *
+ * Deleting an appointment or availability that is already gone makes the commit fail with a
+ * {@link ConflictException} and roll back, so a command never half-applies on top of a concurrent one.
+ *
+ * Usage:
+ *   UnitOfWork uow = new UnitOfWork();
+ *   try {
+ *       ... reads on uow.connection(), uow.registerDeletedAppointment(id), ...
+ *       uow.commit();
+ *   } finally {
+ *       uow.close();
+ *   }
+ */
+public class UnitOfWork {
+
+    /**
+     * A registered delete found no row: another command changed the same data first.
+     */
+    public static class ConflictException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public ConflictException(String reason) {
+            super(reason, "40001");
+        }
+    }
+
+    private static final String insertCaregiver =
+            "INSERT INTO Caregivers (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)";
+    private static final String insertPatient =
+            "INSERT INTO Patient (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)";
+    private static final String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+    private static final String insertVaccine = "INSERT INTO Vaccines (Name, Doses) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = ?)";
+    private static final String deleteAppointment = "DELETE FROM Appointment WHERE Id = ?";
+    private static final String deleteAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    private static final String insertAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+    private static final String insertAppointment = "INSERT INTO Appointment VALUES (?, ?, ?, ?, ?)";
+
+    private final List<Caregiver> newCaregivers = new ArrayList<>();
+    private final List<Patient> newPatients = new ArrayList<>();
+    // vaccine -> doses to add (negative to take), created with that many doses if missing
+    private final Map<String, Integer> doseChanges = new LinkedHashMap<>();
+    private final List<Integer> deletedAppointments = new ArrayList<>();
+    private final List<Availability> deletedAvailabilities = new ArrayList<>();
+    private final List<Availability> newAvailabilities = new ArrayList<>();
+    private final List<Appointment> newAppointments = new ArrayList<>();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    // filled in by commit
+    private final Set<String> createdVaccines = new HashSet<>();
+
+    private ConnectionManager cm = null;
+    private Connection con = null;
+    private boolean committed = false;
+
+    /**
+     * The connection of this unit's transaction, for the reads the command needs before deciding what to change.
+     */
+    public Connection connection() throws SQLException {
+        if (committed) {
+            throw new IllegalStateException("Unit of work already committed!");
+        }
+        if (con == null) {
+            cm = new ConnectionManager();
+            con = cm.openConnection();
+            con.setAutoCommit(false);
+        }
+        return con;
+    }
+
+    public void registerNew(Caregiver caregiver) {
+        newCaregivers.add(caregiver);
+    }
+
+    public void registerNew(Patient patient) {
+        newPatients.add(patient);
+    }
+
+    // changes to the same vaccine are folded into one relative update
+    public void registerDoses(String vaccine, int delta) {
+        doseChanges.merge(vaccine, delta, Integer::sum);
+    }
+
+    public void registerDeletedAppointment(int id) {
+        deletedAppointments.add(id);
+    }
+
+    public void registerNewAppointment(int id, String patient, String caregiver, String vaccine, Date date) {
+        newAppointments.add(new Appointment(id, patient, caregiver, vaccine, date));
+    }
+
+    public void registerDeletedAvailability(Date date, String caregiver) {
+        deletedAvailabilities.add(new Availability(date, caregiver));
+    }
+
+    // an availability that already exists is left as it is
+    public void registerNewAvailability(Date date, String caregiver) {
+        newAvailabilities.add(new Availability(date, caregiver));
+    }
+
+    /**
+     * Run the action after a successful commit, in registration order.
+     */
+    public void afterCommit(Runnable action) {
+        afterCommit.add(action);
+    }
+
+    /**
+     * True if the commit inserted the vaccine rather than updating an existing row.
+     */
+    public boolean wasCreated(String vaccine) {
+        return createdVaccines.contains(vaccine);
+    }
+
+    public boolean isEmpty() {
+        return newCaregivers.isEmpty() && newPatients.isEmpty() && doseChanges.isEmpty()
+                && deletedAppointments.isEmpty() && deletedAvailabilities.isEmpty() && newAvailabilities.isEmpty()
+                && newAppointments.isEmpty();
+    }
+
+    /**
+     * Write every registered change in one transaction, then run the after-commit actions. On failure the
+     * transaction is rolled back and nothing registered has happened.
+     */
+    public void commit() throws SQLException {
+        if (!isEmpty()) {
+            Connection con = connection();
+            try {
+                flush(con);
+                con.commit();
+            } catch (SQLException e) {
+                createdVaccines.clear();
+                con.rollback();
+                throw e;
+            }
+        } else if (con != null) {
+            // only reads were made
+            con.commit();
+        }
+        committed = true;
+        for (Runnable action : afterCommit) {
+            action.run();
+        }
+    }
+
+    /**
+     * Give the connection back, rolling back anything not committed.
+     */
+    public void close() {
+        if (con == null) {
+            return;
+        }
+        try {
+            if (!committed) {
+                con.rollback();
+            }
+            con.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            cm.closeConnection();
+            con = null;
+        }
+    }
+
+    private void flush(Connection con) throws SQLException {
+        if (!newCaregivers.isEmpty()) {
+            PreparedStatement statement = con.prepareStatement(insertCaregiver);
+            for (Caregiver caregiver : newCaregivers) {
+                statement.setString(1, caregiver.getUsername());
+                statement.setBytes(2, caregiver.getSalt());
+                statement.setBytes(3, caregiver.getHash());
+                statement.setInt(4, caregiver.getIterations());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        if (!newPatients.isEmpty()) {
+            PreparedStatement statement = con.prepareStatement(insertPatient);
+            for (Patient patient : newPatients) {
+                statement.setString(1, patient.getUsername());
+                statement.setBytes(2, patient.getSalt());
+                statement.setBytes(3, patient.getHash());
+                statement.setInt(4, patient.getIterations());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        flushDoses(con);
+
+        if (!deletedAppointments.isEmpty()) {
+            PreparedStatement statement = con.prepareStatement(deleteAppointment);
+            for (int id : deletedAppointments) {
+                statement.setInt(1, id);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    throw new ConflictException("Appointment " + deletedAppointments.get(i) + " is already gone");
+                }
+            }
+        }
+        if (!deletedAvailabilities.isEmpty()) {
+            PreparedStatement statement = con.prepareStatement(deleteAvailability);
+            for (Availability availability : deletedAvailabilities) {
+                statement.setDate(1, availability.date);
+                statement.setString(2, availability.caregiver);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    throw new ConflictException("Availability " + deletedAvailabilities.get(i).date + " of "
+                            + deletedAvailabilities.get(i).caregiver + " is already gone");
+                }
+            }
+        }
+        if (!newAvailabilities.isEmpty()) {
+            PreparedStatement statement = con.prepareStatement(insertAvailability);
+            for (Availability availability : newAvailabilities) {
+                statement.setDate(1, availability.date);
+                statement.setString(2, availability.caregiver);
+                statement.setDate(3, availability.date);
+                statement.setString(4, availability.caregiver);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        if (!newAppointments.isEmpty()) {
+            PreparedStatement statement = con.prepareStatement(insertAppointment);
+            for (Appointment appointment : newAppointments) {
+                statement.setInt(1, appointment.id);
+                statement.setString(2, appointment.patient);
+                statement.setString(3, appointment.caregiver);
+                statement.setString(4, appointment.vaccine);
+                statement.setDate(5, appointment.date);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    // relative updates first; vaccines without a row are inserted, and a row another transaction inserted in the
+    // meantime gets the update after all
+    private void flushDoses(Connection con) throws SQLException {
+        if (doseChanges.isEmpty()) {
+            return;
+        }
+        List<String> names = new ArrayList<>(doseChanges.keySet());
+        int[] updated = updateDoses(con, names);
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (updated[i] == 0) {
+                missing.add(names.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        PreparedStatement insert = con.prepareStatement(insertVaccine);
+        for (String name : missing) {
+            insert.setString(1, name);
+            insert.setInt(2, doseChanges.get(name));
+            insert.setString(3, name);
+            insert.addBatch();
+        }
+        int[] inserted = insert.executeBatch();
+        List<String> raced = new ArrayList<>();
+        for (int i = 0; i < missing.size(); i++) {
+            if (inserted[i] == 0) {
+                raced.add(missing.get(i));
+            } else {
+                createdVaccines.add(missing.get(i));
+            }
+        }
+        if (!raced.isEmpty()) {
+            updateDoses(con, raced);
+        }
+    }
+
+    private int[] updateDoses(Connection con, List<String> names) throws SQLException {
+        PreparedStatement update = con.prepareStatement(addDoses);
+        for (String name : names) {
+            update.setInt(1, doseChanges.get(name));
+            update.setString(2, name);
+            update.addBatch();
+        }
+        return update.executeBatch();
+    }
+
+    private static class Availability {
+        private final Date date;
+        private final String caregiver;
+
+        private Availability(Date date, String caregiver) {
+            this.date = date;
+            this.caregiver = caregiver;
+        }
+    }
+
+    private static class Appointment {
+        private final int id;
+        private final String patient;
+        private final String caregiver;
+        private final String vaccine;
+        private final Date date;
+
+        private Appointment(int id, String patient, String caregiver, String vaccine, Date date) {
+            this.id = id;
+            this.patient = patient;
+            this.caregiver = caregiver;
+            this.vaccine = vaccine;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package scheduler.importer;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Migrations;
+import scheduler.util.PasswordHasher;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Streams a CSV file into one of the scheduler tables.
+ *
+ * The file is read line by line and written in batches, so memory use does not depend on the file size. For
+ * caregivers and patients the PBKDF2 hashing of the next batch runs on a worker pool while the current batch is
+ * being written. When the import is given a checkpoint name, every batch records its last line number in the
+ * ImportCheckpoint table in the same transaction as its rows, so a batch and its checkpoint commit together
+ * and rerunning with the same name resumes exactly after the last committed batch. That matters for vaccines,
+ * whose doses are added to the existing row and would be added twice by a replayed batch. Rows that already
+ * exist are counted as duplicates rather than failing the batch. Availabilities of
+ * caregivers that do not exist are rejected without failing the rest of their batch.
+ *
+ * File formats (one row per line, lines starting with # and blank lines are ignored, a first line matching
+ * the header is skipped):
+ *   caregivers, patients: username,password
+ *   vaccines:             name,doses       (doses are added to an existing vaccine)
+ *   availabilities:       date,username    (date as yyyy-mm-dd)
+ */
+public class BulkImporter {
+
+    public enum Kind {
+        CAREGIVERS("username,password"),
+        PATIENTS("username,password"),
+        VACCINES("name,doses"),
+        AVAILABILITIES("date,username");
+
+        private final String header;
+
+        Kind(String header) {
+            this.header = header;
+        }
+    }
+
+    private static final String insertCaregiver = "INSERT INTO Caregivers (Username, Salt, Hash, Iterations) " +
+            "SELECT ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Caregivers WHERE Username = ?)";
+    private static final String insertPatient = "INSERT INTO Patient (Username, Salt, Hash, Iterations) " +
+            "SELECT ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Patient WHERE Username = ?)";
+    private static final String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+    private static final String insertVaccine = "INSERT INTO Vaccines (Name, Doses) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = ?)";
+    // rows for unknown caregivers insert nothing instead of failing the batch on the foreign key
+    private static final String insertAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE EXISTS (SELECT 1 FROM Caregivers WHERE Username = ?) " +
+            "AND NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+    private static final String selectCaregiver = "SELECT 1 FROM Caregivers WHERE Username = ?";
+    private static final String selectCheckpoint = "SELECT Line FROM ImportCheckpoint WHERE Name = ?";
+    private static final String updateCheckpoint = "UPDATE ImportCheckpoint SET Line = ? WHERE Name = ?";
+    private static final String insertCheckpoint = "INSERT INTO ImportCheckpoint (Name, Line) VALUES (?, ?)";
+
+    private final Kind kind;
+    private final Path input;
+    private final String checkpoint;
+    private final int batchSize;
+    private final int hashThreads;
+    private final PrintStream log;
+
+    // statistics
+    private long read = 0;
+    private long inserted = 0;
+    private long merged = 0;
+    private long duplicates = 0;
+    private long rejected = 0;
+    private long skipped = 0;
+    private long batches = 0;
+    private long startNanos;
+
+    private BulkImporter(ImporterBuilder builder) {
+        this.kind = builder.kind;
+        this.input = builder.input;
+        this.checkpoint = builder.checkpoint;
+        this.batchSize = builder.batchSize;
+        this.hashThreads = builder.hashThreads;
+        this.log = builder.log;
+    }
+
+    /**
+     * Run the import to completion. Statistics are available from the getters afterwards.
+     */
+    public void run() throws IOException, SQLException {
+        startNanos = System.nanoTime();
+        PasswordHasher hasher = null;
+        if (kind == Kind.CAREGIVERS || kind == Kind.PATIENTS) {
+            // a private hasher so the import can use every core without a queue limit tuned for logins;
+            // its queue holds one batch, so reading blocks once a whole batch is waiting to be hashed
+            hasher = new PasswordHasher(PasswordHasher.getDefault().getIterations(), hashThreads, batchSize);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            long resumeAfter = readCheckpoint(con);
+            if (resumeAfter > 0) {
+                log.println("Resuming " + input + " after line " + resumeAfter);
+            }
+            con.setAutoCommit(false);
+            List<Row> batch = new ArrayList<>(batchSize);
+            List<Row> pending = null;
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumeAfter) {
+                    skipped++;
+                    continue;
+                }
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")
+                        || (lineNumber == 1 && trimmed.equalsIgnoreCase(kind.header))) {
+                    continue;
+                }
+                read++;
+                Row row = parse(trimmed, lineNumber);
+                if (row == null) {
+                    rejected++;
+                    continue;
+                }
+                if (hasher != null) {
+                    row.hashed = hasher.hashAsync(row.second);
+                }
+                batch.add(row);
+                if (batch.size() == batchSize) {
+                    // write the previous batch while the workers hash this one
+                    if (pending != null) {
+                        write(con, pending);
+                    }
+                    pending = batch;
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (pending != null) {
+                write(con, pending);
+            }
+            write(con, batch);
+        } finally {
+            cm.closeConnection();
+            if (hasher != null) {
+                hasher.shutdown();
+            }
+        }
+        log.println(summary());
+    }
+
+    private Row parse(String line, long lineNumber) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 2) {
+            reject(lineNumber, "expected 2 fields");
+            return null;
+        }
+        String first = fields[0].trim();
+        String second = fields[1].trim();
+        if (first.isEmpty() || second.isEmpty()) {
+            reject(lineNumber, "empty field");
+            return null;
+        }
+        Row row = new Row(lineNumber, first, second);
+        try {
+            if (kind == Kind.VACCINES) {
+                row.doses = Integer.parseInt(second);
+                if (row.doses < 0) {
+                    reject(lineNumber, "negative doses");
+                    return null;
+                }
+            } else if (kind == Kind.AVAILABILITIES) {
+                row.date = Date.valueOf(first);
+            }
+        } catch (IllegalArgumentException e) {
+            reject(lineNumber, e.getMessage());
+            return null;
+        }
+        return row;
+    }
+
+    private void reject(long lineNumber, String reason) {
+        log.println("Rejected line " + lineNumber + ": " + reason);
+    }
+
+    private void write(Connection con, List<Row> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            switch (kind) {
+                case CAREGIVERS:
+                    writeUsers(con, rows, insertCaregiver);
+                    break;
+                case PATIENTS:
+                    writeUsers(con, rows, insertPatient);
+                    break;
+                case VACCINES:
+                    writeVaccines(con, rows);
+                    break;
+                case AVAILABILITIES:
+                    writeAvailabilities(con, rows);
+                    break;
+            }
+            writeCheckpoint(con, rows.get(rows.size() - 1).lineNumber);
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        }
+        if (++batches % 10 == 0) {
+            log.println(progress());
+        }
+    }
+
+    private void writeUsers(Connection con, List<Row> rows, String sql) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(sql);
+        for (Row row : rows) {
+            PasswordHasher.Hashed hashed;
+            try {
+                hashed = row.hashed.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while hashing passwords", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            statement.setString(1, row.first);
+            statement.setBytes(2, hashed.getSalt());
+            statement.setBytes(3, hashed.getHash());
+            statement.setInt(4, hashed.getIterations());
+            statement.setString(5, row.first);
+            statement.addBatch();
+        }
+        countInserts(statement.executeBatch());
+    }
+
+    private void writeVaccines(Connection con, List<Row> rows) throws SQLException {
+        // rows for the same vaccine are folded into one change, so a vaccine that is new to the table gets
+        // every row's doses rather than only the first row's
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        for (Row row : rows) {
+            if (doses.containsKey(row.first)) {
+                merged++;
+            }
+            doses.merge(row.first, row.doses, Integer::sum);
+        }
+        List<String> names = new ArrayList<>(doses.keySet());
+        int[] updated = updateDoses(con, names, doses);
+
+        // only vaccines that did not exist yet need inserting
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (updated[i] > 0) {
+                merged++;
+            } else {
+                missing.add(names.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        PreparedStatement insert = con.prepareStatement(insertVaccine);
+        for (String name : missing) {
+            insert.setString(1, name);
+            insert.setInt(2, doses.get(name));
+            insert.setString(3, name);
+            insert.addBatch();
+        }
+        int[] inserted = insert.executeBatch();
+        // a row another process inserted in the meantime gets the doses added after all
+        List<String> raced = new ArrayList<>();
+        for (int i = 0; i < missing.size(); i++) {
+            if (inserted[i] > 0) {
+                this.inserted += inserted[i];
+            } else {
+                raced.add(missing.get(i));
+            }
+        }
+        if (!raced.isEmpty()) {
+            updateDoses(con, raced, doses);
+            merged += raced.size();
+        }
+    }
+
+    private int[] updateDoses(Connection con, List<String> names, Map<String, Integer> doses) throws SQLException {
+        PreparedStatement update = con.prepareStatement(addDoses);
+        for (String name : names) {
+            update.setInt(1, doses.get(name));
+            update.setString(2, name);
+            update.addBatch();
+        }
+        return update.executeBatch();
+    }
+
+    private void writeAvailabilities(Connection con, List<Row> rows) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(insertAvailability);
+        for (Row row : rows) {
+            statement.setDate(1, row.date);
+            statement.setString(2, row.second);
+            statement.setString(3, row.second);
+            statement.setDate(4, row.date);
+            statement.setString(5, row.second);
+            statement.addBatch();
+        }
+        int[] counts = statement.executeBatch();
+
+        // nothing inserted means either a duplicate or a caregiver that does not exist
+        PreparedStatement exists = con.prepareStatement(selectCaregiver);
+        Map<String, Boolean> known = new HashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                inserted += counts[i];
+                continue;
+            }
+            Row row = rows.get(i);
+            Boolean caregiverExists = known.get(row.second);
+            if (caregiverExists == null) {
+                exists.setString(1, row.second);
+                caregiverExists = exists.executeQuery().next();
+                known.put(row.second, caregiverExists);
+            }
+            if (caregiverExists) {
+                duplicates++;
+            } else {
+                reject(row.lineNumber, "unknown caregiver " + row.second);
+                rejected++;
+            }
+        }
+    }
+
+    private void countInserts(int[] counts) {
+        for (int count : counts) {
+            if (count > 0) {
+                inserted += count;
+            } else {
+                duplicates++;
+            }
+        }
+    }
+
+    private long readCheckpoint(Connection con) throws SQLException {
+        if (checkpoint == null) {
+            return 0;
+        }
+        PreparedStatement statement = con.prepareStatement(selectCheckpoint);
+        statement.setString(1, checkpoint);
+        ResultSet resultSet = statement.executeQuery();
+        return resultSet.next() ? resultSet.getLong(1) : 0;
+    }
+
+    // part of the batch's transaction, so the checkpoint never runs ahead of or behind the rows
+    private void writeCheckpoint(Connection con, long lineNumber) throws SQLException {
+        if (checkpoint == null) {
+            return;
+        }
+        PreparedStatement update = con.prepareStatement(updateCheckpoint);
+        update.setLong(1, lineNumber);
+        update.setString(2, checkpoint);
+        if (update.executeUpdate() == 0) {
+            PreparedStatement insert = con.prepareStatement(insertCheckpoint);
+            insert.setString(1, checkpoint);
+            insert.setLong(2, lineNumber);
+            insert.executeUpdate();
+        }
+    }
+
+    public long getRowsRead() {
+        return read;
+    }
+
+    public long getRowsInserted() {
+        return inserted;
+    }
+
+    public long getRowsMerged() {
+        return merged;
+    }
+
+    public long getDuplicateRows() {
+        return duplicates;
+    }
+
+    public long getRejectedRows() {
+        return rejected;
+    }
+
+    public double getRowsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : read / seconds;
+    }
+
+    private String progress() {
+        return String.format("%s: %d rows read, %.0f rows/s", kind.name().toLowerCase(), read, getRowsPerSecond());
+    }
+
+    private String summary() {
+        return String.format("Imported %s from %s: %d read, %d inserted, %d merged, %d duplicates, %d rejected, "
+                        + "%d skipped by checkpoint, %.0f rows/s", kind.name().toLowerCase(), input, read, inserted,
+                merged, duplicates, rejected, skipped, getRowsPerSecond());
+    }
+
+    private static class Row {
+        private final long lineNumber;
+        private final String first;
+        private final String second;
+        private int doses;
+        private Date date;
+        private Future<PasswordHasher.Hashed> hashed;
+
+        private Row(long lineNumber, String first, String second) {
+            this.lineNumber = lineNumber;
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    public static class ImporterBuilder {
+        private final Kind kind;
+        private final Path input;
+        private String checkpoint = null;
+        private int batchSize = 1000;
+        private int hashThreads = Runtime.getRuntime().availableProcessors();
+        private PrintStream log = System.out;
+
+        public ImporterBuilder(Kind kind, Path input) {
+            this.kind = kind;
+            this.input = input;
+        }
+
+        // name of the import's row in the ImportCheckpoint table
+        public ImporterBuilder checkpoint(String checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public ImporterBuilder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public ImporterBuilder hashThreads(int hashThreads) {
+            this.hashThreads = hashThreads;
+            return this;
+        }
+
+        public ImporterBuilder log(PrintStream log) {
+            this.log = log;
+            return this;
+        }
+
+        public BulkImporter build() {
+            if (batchSize < 1 || hashThreads < 1) {
+                throw new IllegalArgumentException("Batch size and hash threads must be positive!");
+            }
+            return new BulkImporter(this);
+        }
+    }
+
+    // java scheduler.importer.BulkImporter <caregivers|patients|vaccines|availabilities> <file.csv> [checkpoint_name]
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: <caregivers|patients|vaccines|availabilities> <file.csv> [checkpoint_name]");
+            return;
+        }
+        Kind kind;
+        try {
+            kind = Kind.valueOf(args[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown import type: " + args[0]);
+            return;
+        }
+        ImporterBuilder builder = new ImporterBuilder(kind, Paths.get(args[1]));
+        if (args.length == 3) {
+            builder.checkpoint(args[2]);
+        }
+        try {
+            // the checkpoint table comes with the migrations
+            Migrations.migrate();
+            builder.build().run();
+        } finally {
+            ConnectionManager.shutdown();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of committed reservations, cancellations, dose additions and availability uploads.
+ *
+ * The journal is a directory of fixed-size segment files named after the sequence number of their first record,
+ * written through a memory-mapped buffer. Every record is framed as
+ *   int length | int CRC-32 of the body | body (sequence, timestamp, type, fields)
+ * and followed by a zero length, so a reader stops at the end of the journal or at the first torn or corrupt
+ * record. A new process continues after the last intact record.
+ *
+ * Appends only copy bytes into the mapping. A flusher thread forces the written range to disk; with sync on,
+ * append waits for the force that covers its record, and appends that arrive while a force is pending share it
+ * (group commit), so a burst of commands costs one disk flush rather than one each. With sync off, records reach
+ * the disk within about groupCommitMillis and a crash can lose the last few.
+ *
+ * The journal follows the database: records are appended after the change has committed, so the database stays
+ * the source of truth and the journal is an audit trail and a way to rebuild in-memory state without queries.
+ */
+public class Journal {
+    private static final int MAGIC = 0x4A524E4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FRAME_BYTES = 8;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private static volatile Journal defaultJournal = null;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean sync;
+    private final long groupCommitMillis;
+    private final CRC32 crc = new CRC32();
+
+    // guarded by this
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int position;
+    private int forcedPosition;
+    private long nextSequence;
+    private long forcedSequence;
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+    private boolean closed = false;
+    private final Thread flusher;
+
+    // metrics, guarded by this
+    private long appends = 0;
+    private long forces = 0;
+    private long appendedBytes = 0;
+    private long segments = 0;
+
+    private Journal(Path dir, int segmentBytes, boolean sync, long groupCommitMillis) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        this.groupCommitMillis = groupCommitMillis;
+        Files.createDirectories(dir);
+        List<Path> existing = segments(dir);
+        if (existing.isEmpty()) {
+            nextSequence = 1;
+            newSegment();
+        } else {
+            Path last = existing.get(existing.size() - 1);
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentBytes));
+            long[] end = scan(segment, firstSequence(last), null, 0);
+            position = (int) end[0];
+            nextSequence = end[1] + 1;
+            // clears whatever a torn append left behind the last intact record
+            segment.putInt(position, 0);
+            segments = existing.size();
+        }
+        forcedPosition = position;
+        forcedSequence = nextSequence - 1;
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Open the journal in dir, creating it if needed.
+     */
+    public static Journal open(Path dir, int segmentBytes, boolean sync, long groupCommitMillis) throws IOException {
+        if (segmentBytes < 4096 || groupCommitMillis < 0) {
+            throw new IllegalArgumentException("Invalid journal configuration!");
+        }
+        return new Journal(dir, segmentBytes, sync, groupCommitMillis);
+    }
+
+    // the journal commands append to, or null when journaling is off
+    public static Journal getDefault() {
+        return defaultJournal;
+    }
+
+    public static void setDefault(Journal journal) {
+        defaultJournal = journal;
+    }
+
+    /**
+     * Append to the default journal if there is one. A journal that cannot be written is reported and the
+     * command carries on; the database already has the change.
+     */
+    public static void record(JournalRecord record) {
+        Journal journal = defaultJournal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(record);
+        } catch (IOException e) {
+            System.out.println("Could not write to the journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append a record and return its sequence number. With sync on, returns once the record is on disk.
+     */
+    public synchronized long append(JournalRecord record) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        long sequence = nextSequence;
+        ByteBuffer body = encode(sequence, System.currentTimeMillis(), record);
+        int length = body.remaining();
+        if (position + FRAME_BYTES + length + 4 > segmentBytes) {
+            roll();
+        }
+        crc.reset();
+        crc.update(body.duplicate());
+        segment.putInt(position + FRAME_BYTES + length, 0);
+        segment.put(position + FRAME_BYTES, body, body.position(), length);
+        segment.putInt(position + 4, (int) crc.getValue());
+        // the length goes last, so a reader never sees a frame whose body is not there yet
+        segment.putInt(position, length);
+        position += FRAME_BYTES + length;
+        nextSequence++;
+        appends++;
+        appendedBytes += FRAME_BYTES + length;
+        notifyAll();
+        if (sync) {
+            while (forcedSequence < sequence && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the journal");
+                }
+            }
+        }
+        return sequence;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (!closed && forcedSequence == nextSequence - 1) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            if (groupCommitMillis > 0) {
+                // lets appends that are about to happen share this force
+                try {
+                    Thread.sleep(groupCommitMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            MappedByteBuffer buffer;
+            int from;
+            int to;
+            long upTo;
+            synchronized (this) {
+                buffer = segment;
+                from = forcedPosition;
+                to = position;
+                upTo = nextSequence - 1;
+            }
+            if (to > from) {
+                buffer.force(from, to - from);
+            }
+            synchronized (this) {
+                if (buffer == segment) {
+                    forcedPosition = Math.max(forcedPosition, to);
+                }
+                forcedSequence = Math.max(forcedSequence, upTo);
+                forces++;
+                notifyAll();
+            }
+        }
+    }
+
+    // callers hold the lock; everything written so far is in the old segment, so forcing it covers it all
+    private void roll() throws IOException {
+        segment.force();
+        forcedSequence = nextSequence - 1;
+        channel.close();
+        newSegment();
+        forcedPosition = position;
+    }
+
+    private void newSegment() throws IOException {
+        Path file = dir.resolve(String.format("%s%020d%s", PREFIX, nextSequence, SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putInt(HEADER_BYTES, 0);
+        position = HEADER_BYTES;
+        segments++;
+    }
+
+    /**
+     * Force everything appended so far to disk and stop the flusher.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        flusher.interrupt();
+        try {
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            segment.force();
+            forcedSequence = nextSequence - 1;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    // the sequence number the next append gets
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Replay this journal's records from fromSequence on, in order.
+     */
+    public long replay(long fromSequence, Consumer<JournalRecord> consumer) throws IOException {
+        return read(dir, fromSequence, consumer);
+    }
+
+    /**
+     * Read the journal in dir without opening it for writing, e.g. for an audit. Returns the sequence number of
+     * the last record read, or fromSequence - 1 if there were none.
+     */
+    public static long read(Path dir, long fromSequence, Consumer<JournalRecord> consumer) throws IOException {
+        long last = fromSequence - 1;
+        if (!Files.isDirectory(dir)) {
+            return last;
+        }
+        List<Path> files = segments(dir);
+        for (int i = 0; i < files.size(); i++) {
+            // a segment ends where the next one starts
+            if (i + 1 < files.size() && firstSequence(files.get(i + 1)) <= fromSequence) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                long[] end = scan(buffer, firstSequence(files.get(i)), consumer, fromSequence);
+                last = Math.max(last, end[1]);
+            }
+        }
+        return last;
+    }
+
+    // walks the intact records of one segment; returns the end position and the last sequence number seen
+    private static long[] scan(ByteBuffer buffer, long firstSequence, Consumer<JournalRecord> consumer,
+                               long fromSequence) throws IOException {
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a journal segment");
+        }
+        CRC32 check = new CRC32();
+        int position = HEADER_BYTES;
+        long last = firstSequence - 1;
+        while (position + FRAME_BYTES <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_BYTES + length > buffer.limit()) {
+                break;
+            }
+            ByteBuffer body = buffer.slice(position + FRAME_BYTES, length);
+            check.reset();
+            check.update(body.duplicate());
+            if ((int) check.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            JournalRecord record = decode(body);
+            if (record == null || record.getSequence() != last + 1) {
+                break;
+            }
+            last = record.getSequence();
+            if (consumer != null && last >= fromSequence) {
+                consumer.accept(record);
+            }
+            position += FRAME_BYTES + length;
+        }
+        return new long[]{position, last};
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // zero padded, so name order is sequence order
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    // callers hold the lock, which guards the scratch buffer
+    private ByteBuffer encode(long sequence, long timestamp, JournalRecord record) {
+        while (true) {
+            ByteBuffer buffer = scratch;
+            buffer.clear();
+            try {
+                buffer.putLong(sequence);
+                buffer.putLong(timestamp);
+                buffer.put((byte) record.getType().ordinal());
+                switch (record.getType()) {
+                    case RESERVED:
+                    case CANCELED:
+                        buffer.putInt(record.getAppointmentId());
+                        putString(buffer, record.getPatient());
+                        putString(buffer, record.getCaregiver());
+                        putString(buffer, record.getVaccine());
+                        putDate(buffer, record.getDate());
+                        break;
+                    case DOSES_ADDED:
+                        putString(buffer, record.getVaccine());
+                        buffer.putInt(record.getDoses());
+                        break;
+                    case AVAILABILITY_UPLOADED:
+                        putString(buffer, record.getCaregiver());
+                        putDate(buffer, record.getDate());
+                        break;
+                }
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    private static JournalRecord decode(ByteBuffer body) {
+        try {
+            long sequence = body.getLong();
+            long timestamp = body.getLong();
+            JournalRecord.Type type = JournalRecord.Type.of(body.get());
+            if (type == null) {
+                return null;
+            }
+            switch (type) {
+                case RESERVED:
+                case CANCELED:
+                    return new JournalRecord(sequence, timestamp, type, body.getInt(), getString(body),
+                            getString(body), getString(body), getDate(body), 0);
+                case DOSES_ADDED:
+                    return new JournalRecord(sequence, timestamp, type, 0, null, null, getString(body), null,
+                            body.getInt());
+                default:
+                    return new JournalRecord(sequence, timestamp, type, 0, null, getString(body), null,
+                            getDate(body), 0);
+            }
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    // length-prefixed UTF-8, -1 for null
+    private static void putString(ByteBuffer buffer, String s) {
+        if (s == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putDate(ByteBuffer buffer, Date date) {
+        buffer.putInt(date == null ? NO_DATE : (int) date.toLocalDate().toEpochDay());
+    }
+
+    private static Date getDate(ByteBuffer buffer) {
+        int day = buffer.getInt();
+        return day == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(day));
+    }
+
+    // Metrics
+    public synchronized long getAppendCount() {
+        return appends;
+    }
+
+    public synchronized long getForceCount() {
+        return forces;
+    }
+
+    public synchronized long getAppendedBytes() {
+        return appendedBytes;
+    }
+
+    // appends per disk flush, the group commit factor
+    public synchronized double getAppendsPerForce() {
+        return forces == 0 ? 0 : (double) appends / forces;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Journal{" +
+                "dir=" + dir +
+                ", nextSequence=" + nextSequence +
+                ", segments=" + segments +
+                ", appends=" + appends +
+                ", bytes=" + appendedBytes +
+                ", forces=" + forces +
+                ", appendsPerForce=" + String.format("%.1f", getAppendsPerForce()) +
+                '}';
+    }
+}
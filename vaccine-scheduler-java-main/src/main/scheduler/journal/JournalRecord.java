@@ -0,0 +1,120 @@
+package scheduler.journal;
+
+import java.sql.Date;
+import java.time.Instant;
+
+/**
+ * One committed change, as written to the {@link Journal}. The sequence number and timestamp are assigned when
+ * the record is appended; records built with the factory methods have a sequence of 0.
+ */
+public class JournalRecord {
+
+    public enum Type {
+        RESERVED, CANCELED, DOSES_ADDED, AVAILABILITY_UPLOADED;
+
+        private static final Type[] values = values();
+
+        static Type of(int ordinal) {
+            return ordinal >= 0 && ordinal < values.length ? values[ordinal] : null;
+        }
+    }
+
+    private final long sequence;
+    private final long timestamp;
+    private final Type type;
+    private final int appointmentId;
+    private final String patient;
+    private final String caregiver;
+    private final String vaccine;
+    private final Date date;
+    private final int doses;
+
+    JournalRecord(long sequence, long timestamp, Type type, int appointmentId, String patient, String caregiver,
+                  String vaccine, Date date, int doses) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.appointmentId = appointmentId;
+        this.patient = patient;
+        this.caregiver = caregiver;
+        this.vaccine = vaccine;
+        this.date = date;
+        this.doses = doses;
+    }
+
+    public static JournalRecord reserved(int appointmentId, String patient, String caregiver, String vaccine,
+                                         Date date) {
+        return new JournalRecord(0, 0, Type.RESERVED, appointmentId, patient, caregiver, vaccine, date, 0);
+    }
+
+    public static JournalRecord canceled(int appointmentId, String patient, String caregiver, String vaccine,
+                                         Date date) {
+        return new JournalRecord(0, 0, Type.CANCELED, appointmentId, patient, caregiver, vaccine, date, 0);
+    }
+
+    public static JournalRecord dosesAdded(String vaccine, int doses) {
+        return new JournalRecord(0, 0, Type.DOSES_ADDED, 0, null, null, vaccine, null, doses);
+    }
+
+    public static JournalRecord availabilityUploaded(String caregiver, Date date) {
+        return new JournalRecord(0, 0, Type.AVAILABILITY_UPLOADED, 0, null, caregiver, null, date, 0);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // milliseconds since the epoch when the record was appended
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public int getDoses() {
+        return doses;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(sequence).append(' ').append(Instant.ofEpochMilli(timestamp)).append(' ').append(type);
+        switch (type) {
+            case RESERVED:
+            case CANCELED:
+                sb.append(" id=").append(appointmentId).append(" patient=").append(patient)
+                        .append(" caregiver=").append(caregiver).append(" vaccine=").append(vaccine)
+                        .append(" date=").append(date);
+                break;
+            case DOSES_ADDED:
+                sb.append(" vaccine=").append(vaccine).append(" doses=").append(doses);
+                break;
+            case AVAILABILITY_UPLOADED:
+                sb.append(" caregiver=").append(caregiver).append(" date=").append(date);
+                break;
+        }
+        return sb.toString();
+    }
+}
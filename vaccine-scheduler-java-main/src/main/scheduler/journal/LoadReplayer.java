@@ -0,0 +1,33 @@
+package scheduler.journal;
+
+import scheduler.cache.CaregiverLoad;
+
+import java.util.function.Consumer;
+
+/**
+ * Applies the bookings and cancellations of journal records to the caregiver load, so the load can be rebuilt
+ * from a journal that covers every booking instead of querying the Appointment table. The other caches need
+ * a base state that the journal alone cannot provide, and reload from the database instead.
+ */
+public class LoadReplayer implements Consumer<JournalRecord> {
+    private long replayed = 0;
+
+    @Override
+    public void accept(JournalRecord record) {
+        switch (record.getType()) {
+            case RESERVED:
+                CaregiverLoad.getDefault().booked(record.getCaregiver());
+                break;
+            case CANCELED:
+                CaregiverLoad.getDefault().canceled(record.getCaregiver());
+                break;
+            default:
+                break;
+        }
+        replayed++;
+    }
+
+    public long getReplayedCount() {
+        return replayed;
+    }
+}
@@ -0,0 +1,82 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, errors, database round trips and connections borrowed for one command.
+ */
+public class CommandStats implements CommandStatsMBean {
+    private final String command;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+
+    CommandStats(String command) {
+        this.command = command;
+    }
+
+    void record(long nanos, boolean error, long roundTrips, long connections) {
+        latency.record(nanos);
+        if (error) {
+            errors.increment();
+        }
+        this.roundTrips.add(roundTrips);
+        this.connections.add(connections);
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latency.getPercentile(90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMax() / 1e6;
+    }
+
+    @Override
+    public double getRoundTripsPerCommand() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) roundTrips.sum() / n;
+    }
+
+    @Override
+    public double getConnectionsPerCommand() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) connections.sum() / n;
+    }
+}
@@ -0,0 +1,24 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of one command's {@link CommandStats}. Latencies are in milliseconds.
+ */
+public interface CommandStatsMBean {
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    double getRoundTripsPerCommand();
+
+    double getConnectionsPerCommand();
+}
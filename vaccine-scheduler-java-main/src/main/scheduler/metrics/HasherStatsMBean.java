@@ -0,0 +1,18 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of the password hasher, so bursts of logins show up as hashing load.
+ */
+public interface HasherStatsMBean {
+    int getIterations();
+
+    long getHashCount();
+
+    double getHashesPerSecond();
+
+    double getAverageHashMillis();
+
+    long getWaitCount();
+
+    int getQueueDepth();
+}
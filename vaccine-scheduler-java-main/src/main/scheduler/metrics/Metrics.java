@@ -0,0 +1,299 @@
+package scheduler.metrics;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-command latency histograms and database usage.
+ *
+ * A command is timed from {@link #begin} to {@link Sample#end}. While it runs, the connection pool and the
+ * statements it hands out report every connection borrowed and every round trip (execute, commit, rollback) on
+ * the command's thread, or on a thread that has adopted the command's sample (see {@link #adopt}), so each
+ * command is charged with the database work done on its behalf. The results are
+ * available as a text report (the stats command and the dump file) and as MBeans under the "scheduler" domain.
+ */
+public class Metrics {
+
+    private static final Metrics defaultMetrics = new Metrics();
+
+    private static final ThreadLocal<Sample> current = new ThreadLocal<>();
+
+    private final ConcurrentHashMap<String, CommandStats> commands = new ConcurrentHashMap<>();
+    // components whose own counters are part of the report, by name
+    private final Map<String, Object> components = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService dumper = null;
+    private Path dumpFile = null;
+
+    public static Metrics getDefault() {
+        return defaultMetrics;
+    }
+
+    /**
+     * Start timing a command on this thread.
+     */
+    public Sample begin(String command) {
+        Sample sample = new Sample(stats(command), current.get());
+        current.set(sample);
+        return sample;
+    }
+
+    // charge a database round trip to the command running on this thread, if any
+    public static void roundTrip() {
+        Sample sample = current.get();
+        if (sample != null) {
+            sample.roundTrips.incrementAndGet();
+        }
+    }
+
+    // charge a borrowed connection to the command running on this thread, if any
+    public static void connectionBorrowed() {
+        Sample sample = current.get();
+        if (sample != null) {
+            sample.connections.incrementAndGet();
+        }
+    }
+
+    // the command running on this thread, or null
+    public static Sample current() {
+        return current.get();
+    }
+
+    /**
+     * Charge the work done on this thread to a command begun on another one, until {@link #restore} is called
+     * with the returned sample.
+     */
+    public static Sample adopt(Sample sample) {
+        Sample previous = current.get();
+        current.set(sample);
+        return previous;
+    }
+
+    public static void restore(Sample previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    private CommandStats stats(String command) {
+        CommandStats stats = commands.get(command);
+        if (stats == null) {
+            CommandStats created = new CommandStats(command);
+            stats = commands.putIfAbsent(command, created);
+            if (stats == null) {
+                stats = created;
+                register("scheduler:type=Command,name=" + command, created, CommandStatsMBean.class);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Register a component's MBean under scheduler:type=name and add its toString to the report.
+     */
+    public <T> void expose(String name, T component, Class<T> type) {
+        components.put(name, component);
+        register("scheduler:type=" + name, component, type);
+    }
+
+    public Map<String, CommandStats> getCommands() {
+        return new TreeMap<>(commands);
+    }
+
+    /**
+     * A table of every command seen so far followed by the pool gauges and the exposed components.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-26s %8s %6s %9s %9s %9s %9s %9s %7s %6s%n", "command", "count", "errors",
+                "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms", "trips", "conns"));
+        for (CommandStats stats : getCommands().values()) {
+            sb.append(String.format("%-26s %8d %6d %9.2f %9.2f %9.2f %9.2f %9.2f %7.1f %6.1f%n",
+                    stats.getCommand(), stats.getCount(), stats.getErrorCount(), stats.getMeanMillis(),
+                    stats.getP50Millis(), stats.getP90Millis(), stats.getP99Millis(), stats.getMaxMillis(),
+                    stats.getRoundTripsPerCommand(), stats.getConnectionsPerCommand()));
+        }
+        ConnectionPool pool = ConnectionManager.currentPool();
+        if (pool != null) {
+            sb.append(String.format("pool: %d total, %d active, %d idle, %d waits (avg %.2f ms), %d timeouts%n",
+                    pool.getTotalConnections(), pool.getActiveConnections(), pool.getIdleConnections(),
+                    pool.getWaitCount(), pool.getAverageWaitMillis(), pool.getTimeoutCount()));
+            sb.append(String.format("statement cache: %d hits, %d misses, %.1f%% hit ratio, %d evictions%n",
+                    pool.getStatementHitCount(), pool.getStatementMissCount(), pool.getStatementHitRatio() * 100,
+                    pool.getStatementEvictionCount()));
+        }
+        for (Object component : components.values()) {
+            sb.append(component).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Register the pool MBean and, if a file is given, write the report to it every period.
+     */
+    public synchronized void start(Path dumpFile, long dumpSeconds) {
+        register("scheduler:type=ConnectionPool", new PoolStats(), PoolStatsMBean.class);
+        if (dumpFile != null && dumper == null) {
+            this.dumpFile = dumpFile;
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+            dumper.scheduleWithFixedDelay(this::dumpQuietly, dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop the periodic dump after writing a final one.
+     */
+    public synchronized void stop() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+            dumpQuietly();
+        }
+    }
+
+    private void dumpQuietly() {
+        try {
+            dump(dumpFile);
+        } catch (IOException e) {
+            System.out.println("Could not write metrics to " + dumpFile + ": " + e.getMessage());
+        }
+    }
+
+    // write then rename, so readers never see a half written report
+    public void dump(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, ("# " + Instant.now() + System.lineSeparator() + report())
+                .getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> void register(String name, T mbean, Class<T> type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(mbean, type), objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One running command. Must be ended on the thread that began it; other threads may charge work to it
+     * while it runs.
+     */
+    public static class Sample {
+        private final CommandStats stats;
+        private final Sample outer;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong roundTrips = new AtomicLong();
+        private final AtomicLong connections = new AtomicLong();
+
+        private Sample(CommandStats stats, Sample outer) {
+            this.stats = stats;
+            this.outer = outer;
+        }
+
+        public void end(boolean error) {
+            stats.record(System.nanoTime() - startNanos, error, roundTrips.get(), connections.get());
+            if (outer != null) {
+                // database work of a nested command also counts for the command that ran it
+                outer.roundTrips.addAndGet(roundTrips.get());
+                outer.connections.addAndGet(connections.get());
+            }
+            current.set(outer);
+        }
+    }
+
+    private static class PoolStats implements PoolStatsMBean {
+        private ConnectionPool pool() {
+            return ConnectionManager.currentPool();
+        }
+
+        @Override
+        public int getTotalConnections() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getTotalConnections();
+        }
+
+        @Override
+        public int getActiveConnections() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+
+        @Override
+        public int getIdleConnections() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getIdleConnections();
+        }
+
+        @Override
+        public long getBorrowCount() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getBorrowCount();
+        }
+
+        @Override
+        public long getWaitCount() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getWaitCount();
+        }
+
+        @Override
+        public long getTimeoutCount() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getTimeoutCount();
+        }
+
+        @Override
+        public double getAverageWaitMillis() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getAverageWaitMillis();
+        }
+
+        @Override
+        public long getStatementHitCount() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getStatementHitCount();
+        }
+
+        @Override
+        public long getStatementMissCount() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getStatementMissCount();
+        }
+
+        @Override
+        public double getStatementHitRatio() {
+            ConnectionPool pool = pool();
+            return pool == null ? 0 : pool.getStatementHitRatio();
+        }
+    }
+}
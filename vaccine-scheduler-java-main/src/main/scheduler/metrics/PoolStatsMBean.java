@@ -0,0 +1,26 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of the shared connection pool and its statement caches.
+ */
+public interface PoolStatsMBean {
+    int getTotalConnections();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    long getBorrowCount();
+
+    long getWaitCount();
+
+    long getTimeoutCount();
+
+    double getAverageWaitMillis();
+
+    long getStatementHitCount();
+
+    long getStatementMissCount();
+
+    double getStatementHitRatio();
+}
@@ -0,0 +1,20 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of the reservation engine's outcomes and throughput across all callers.
+ */
+public interface ReservationStatsMBean {
+    long getBookedCount();
+
+    long getNoCaregiverCount();
+
+    long getNoDoseCount();
+
+    long getRetryCount();
+
+    long getFailureCount();
+
+    double getThroughput();
+
+    double getAverageLatencyMillis();
+}
@@ -1,26 +1,34 @@
 package scheduler.model;
 
+import scheduler.cache.AvailabilityIndex;
 import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+import scheduler.service.MatchingEngine;
+import scheduler.util.PasswordHasher;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int iterations;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     // Getters
@@ -36,16 +44,21 @@ public class Caregiver {
         return hash;
     }
 
+    public int getIterations() {
+        return iterations;
+    }
+
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (?, ?, ?)";
+        String addCaregiver = "INSERT INTO Caregivers (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addCaregiver);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setInt(4, this.iterations);
             statement.executeUpdate();
         } catch (SQLException e) {
             throw new SQLException();
@@ -64,6 +77,9 @@ public class Caregiver {
             statement.setDate(1, d);
             statement.setString(2, this.username);
             statement.executeUpdate();
+            AvailabilityIndex.getDefault().add(d, this.username);
+            Journal.record(JournalRecord.availabilityUploaded(this.username, d));
+            MatchingEngine.getDefault().availabilityAdded(d, d);
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -71,15 +87,67 @@ public class Caregiver {
         }
     }
 
+    // Upload many days at once as one JDBC batch in one transaction. Days that are already uploaded are skipped
+    // rather than failing the batch on the (Time, Username) primary key. Returns the number of days inserted.
+    public int uploadAvailabilities(List<Date> dates) throws SQLException {
+        if (dates.isEmpty()) {
+            return 0;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = con.prepareStatement(addAvailability);
+            for (Date d : dates) {
+                statement.setDate(1, d);
+                statement.setString(2, this.username);
+                statement.setDate(3, d);
+                statement.setString(4, this.username);
+                statement.addBatch();
+            }
+            int inserted = 0;
+            for (int count : statement.executeBatch()) {
+                if (count > 0) {
+                    inserted += count;
+                }
+            }
+            con.commit();
+            AvailabilityIndex.getDefault().addAll(dates, this.username);
+            // days that were already uploaded are recorded again, which replays harmlessly
+            for (Date d : dates) {
+                Journal.record(JournalRecord.availabilityUploaded(this.username, d));
+            }
+            if (inserted > 0) {
+                MatchingEngine.getDefault().availabilityAdded(Collections.min(dates), Collections.max(dates));
+            }
+            return inserted;
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int iterations;
 
+        // for a hash made with Util.generateHash
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, PasswordHasher.LEGACY_ITERATIONS);
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, int iterations) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.iterations = iterations;
         }
 
         public Caregiver build() {
@@ -92,6 +160,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int iterations;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -102,25 +171,39 @@ public class Caregiver {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+            String getCaregiver = "SELECT Salt, Hash, Iterations FROM Caregivers WHERE Username = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getCaregiver);
                 statement.setString(1, this.username);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
                     byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
+                    // the stored hash carries the zero padding of the BINARY(16) column, verify() allows for it
+                    byte[] hash = resultSet.getBytes("Hash");
+                    int iterations = resultSet.getInt("Iterations");
                     // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
+                    PasswordHasher hasher = PasswordHasher.getDefault();
+                    if (!hasher.verify(password, salt, hash, iterations)) {
                         return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
                     }
+                    if (hasher.needsRehash(iterations)) {
+                        // the work factor has been raised since this hash was stored
+                        PasswordHasher.Hashed rehashed = hasher.hash(password);
+                        String rehash = "UPDATE Caregivers SET Salt = ?, Hash = ?, Iterations = ? WHERE Username = ?";
+                        PreparedStatement update = con.prepareStatement(rehash);
+                        update.setBytes(1, rehashed.getSalt());
+                        update.setBytes(2, rehashed.getHash());
+                        update.setInt(3, rehashed.getIterations());
+                        update.setString(4, this.username);
+                        update.executeUpdate();
+                        salt = rehashed.getSalt();
+                        hash = rehashed.getHash();
+                        iterations = rehashed.getIterations();
+                    }
+                    this.salt = salt;
+                    this.hash = hash;
+                    this.iterations = iterations;
+                    return new Caregiver(this);
                 }
                 return null;
             } catch (SQLException e) {
@@ -1,29 +1,31 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.util.PasswordHasher;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Arrays;
 
 public class Patient {
     private final String Username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int iterations;
 
     public Patient(PatientBuilder builder){
         this.Username = builder.Username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Patient(PatientGetter getter) {
         this.Username = getter.Username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     public String getUsername() {
@@ -38,16 +40,21 @@ public class Patient {
         return hash;
     }
 
+    public int getIterations() {
+        return iterations;
+    }
+
     public void create() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addPatient = "INSERT INTO Patient VALUES (?, ?, ?)";
+        String addPatient = "INSERT INTO Patient (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addPatient);
             statement.setString(1, this.Username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setInt(4, this.iterations);
             statement.executeUpdate();
         } catch (SQLException e) {
             throw new SQLException();
@@ -60,11 +67,18 @@ public class Patient {
         private final String Username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int iterations;
 
+        // for a hash made with Util.generateHash
         public PatientBuilder(String Username, byte[] salt, byte[] hash) {
+            this(Username, salt, hash, PasswordHasher.LEGACY_ITERATIONS);
+        }
+
+        public PatientBuilder(String Username, byte[] salt, byte[] hash, int iterations) {
             this.Username = Username;
             this.salt = salt;
             this.hash = hash;
+            this.iterations = iterations;
         }
 
         public Patient build() {
@@ -77,6 +91,7 @@ public class Patient {
         private final String password;
         private  byte[] salt;
         private  byte[] hash;
+        private  int iterations;
 
         public PatientGetter(String Username, String password) {
             this.Username = Username;
@@ -87,22 +102,36 @@ public class Patient {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getPatient = "SELECT Salt, Hash FROM Patient WHERE Username = ?";
+            String getPatient = "SELECT Salt, Hash, Iterations FROM Patient WHERE Username = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getPatient);
                 statement.setString(1, this.Username);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
                     byte[] salt = resultSet.getBytes("Salt");
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
+                    byte[] hash = resultSet.getBytes("Hash");
+                    int iterations = resultSet.getInt("Iterations");
+                    PasswordHasher hasher = PasswordHasher.getDefault();
+                    if (!hasher.verify(password, salt, hash, iterations)) {
                         return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
                     }
+                    if (hasher.needsRehash(iterations)) {
+                        PasswordHasher.Hashed rehashed = hasher.hash(password);
+                        String rehash = "UPDATE Patient SET Salt = ?, Hash = ?, Iterations = ? WHERE Username = ?";
+                        PreparedStatement update = con.prepareStatement(rehash);
+                        update.setBytes(1, rehashed.getSalt());
+                        update.setBytes(2, rehashed.getHash());
+                        update.setInt(3, rehashed.getIterations());
+                        update.setString(4, this.Username);
+                        update.executeUpdate();
+                        salt = rehashed.getSalt();
+                        hash = rehashed.getHash();
+                        iterations = rehashed.getIterations();
+                    }
+                    this.salt = salt;
+                    this.hash = hash;
+                    this.iterations = iterations;
+                    return new Patient(this);
                 }
                 return null;
             } catch (SQLException e) {
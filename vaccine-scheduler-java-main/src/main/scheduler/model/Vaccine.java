@@ -47,22 +47,22 @@ public class Vaccine {
         }
     }
 
-    // Increment the available doses
+    // Increment the available doses. The update is relative, so concurrent changes are not overwritten
     public void increaseAvailableDoses(int num) throws SQLException {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
 
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        String addDoses = "UPDATE vaccines SET Doses = Doses + ? WHERE name = ?;";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
+            PreparedStatement statement = con.prepareStatement(addDoses);
+            statement.setInt(1, num);
             statement.setString(2, this.vaccineName);
             statement.executeUpdate();
+            this.availableDoses += num;
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -70,26 +70,31 @@ public class Vaccine {
         }
     }
 
-    // Decrement the available doses
+    // Decrement the available doses, failing if the table does not have enough left
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        String removeDoses = "UPDATE vaccines SET Doses = Doses - ? WHERE name = ? AND Doses >= ?;";
+        int updated;
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
+            PreparedStatement statement = con.prepareStatement(removeDoses);
+            statement.setInt(1, num);
             statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            statement.setInt(3, num);
+            updated = statement.executeUpdate();
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
             cm.closeConnection();
         }
+        if (updated == 0) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        this.availableDoses -= num;
     }
 
     @Override
@@ -0,0 +1,404 @@
+package scheduler.script;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.ReplicaRouter;
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+import scheduler.metrics.Metrics;
+import scheduler.service.MatchingEngine;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a script of scheduler commands without prompting and writes one JSON line per command.
+ *
+ * The whole script is read before anything runs. Commands run in order on one session. Runs of consecutive
+ * add_doses and upload_availability commands are validated up front and written together: one transaction on
+ * one connection, one JDBC batch per statement, with the doses for the same vaccine folded into one update. If
+ * the shared transaction fails it is rolled back and the run is replayed one command at a time, so every
+ * command still gets the result it would have had interactively. Each shared transaction is timed in stats as
+ * one script_group command.
+ *
+ * Output format, one object per command:
+ *   {"line":3,"command":"add_doses Pfizer 10","error":false,"output":"Doses updated!"}
+ * where error is true if the command hit a database error.
+ */
+public class ScriptRunner {
+
+    // name under which grouped writes appear in stats
+    public static final String GROUP_COMMAND = "script_group";
+
+    private static final String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+    private static final String insertVaccine = "INSERT INTO Vaccines (Name, Doses) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = ?)";
+    private static final String insertAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+
+    private final BufferedReader input;
+    private final PrintStream output;
+    private final int maxGroupSize;
+
+    // command output is captured here and moved into the result records
+    private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    private final Session session = new Session(new PrintStream(captured, true, StandardCharsets.UTF_8), true);
+
+    // statistics
+    private long commands = 0;
+    private long groupedWrites = 0;
+    private long transactions = 0;
+    private long replayedGroups = 0;
+    private long startNanos;
+
+    private ScriptRunner(RunnerBuilder builder) {
+        this.input = builder.input;
+        this.output = builder.output;
+        this.maxGroupSize = builder.maxGroupSize;
+    }
+
+    /**
+     * Run the script until its end or a quit command.
+     */
+    public void run() throws IOException {
+        startNanos = System.nanoTime();
+        List<Command> script = new ArrayList<>();
+        long lineNumber = 0;
+        String line;
+        while ((line = input.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            script.add(new Command(lineNumber, trimmed));
+        }
+
+        int i = 0;
+        while (i < script.size()) {
+            if (!script.get(i).isGroupable()) {
+                if (!runOne(script.get(i))) {
+                    break;
+                }
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < script.size() && end - i < maxGroupSize && script.get(end).isGroupable()) {
+                end++;
+            }
+            runGroup(script.subList(i, end));
+            i = end;
+        }
+        output.flush();
+    }
+
+    private boolean runOne(Command command) {
+        boolean keepGoing = true;
+        boolean error = false;
+        try {
+            keepGoing = Scheduler.execute(session, command.text);
+        } catch (SQLException | RuntimeException e) {
+            session.println("Please try again!");
+            e.printStackTrace();
+            error = true;
+        }
+        write(command, error, takeOutput());
+        return keepGoing;
+    }
+
+    private void runGroup(List<Command> group) {
+        // validate every command the way the interactive command would; only valid writes reach the database
+        List<Command> writes = new ArrayList<>();
+        for (Command command : group) {
+            command.message = validate(command);
+            if (command.message == null) {
+                writes.add(command);
+            }
+        }
+        if (!writes.isEmpty()) {
+            // the shared transaction is timed as one command; a replay times each command on its own
+            Metrics.Sample sample = Metrics.getDefault().begin(GROUP_COMMAND);
+            try {
+                writeGroup(writes);
+            } catch (SQLException e) {
+                sample.end(true);
+                // fall back to one command at a time so only the failing commands fail
+                replayedGroups++;
+                for (Command command : group) {
+                    runOne(command);
+                }
+                return;
+            } catch (RuntimeException e) {
+                sample.end(true);
+                throw e;
+            }
+            sample.end(false);
+        }
+        for (Command command : group) {
+            write(command, command.failed, command.message);
+        }
+    }
+
+    private String validate(Command command) {
+        String[] tokens = command.tokens;
+        if (session.getCaregiver() == null) {
+            return "Please login as a caregiver first!";
+        }
+        if (tokens[0].equals("upload_availability")) {
+            if (tokens.length != 2) {
+                return "Please try again!";
+            }
+            try {
+                command.date = Date.valueOf(tokens[1]);
+            } catch (IllegalArgumentException e) {
+                return "Please enter a valid date!";
+            }
+        } else {
+            if (tokens.length != 3) {
+                return "Please try again!";
+            }
+            try {
+                command.doses = Integer.parseInt(tokens[2]);
+            } catch (NumberFormatException e) {
+                return "Please try again!";
+            }
+            if (command.doses < 0) {
+                return "Argument cannot be negative!";
+            }
+        }
+        return null;
+    }
+
+    private void writeGroup(List<Command> writes) throws SQLException {
+        String username = session.getCaregiver().getUsername();
+        List<Command> uploads = new ArrayList<>();
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        for (Command command : writes) {
+            if (command.date != null) {
+                uploads.add(command);
+            } else {
+                doses.merge(command.tokens[1], command.doses, Integer::sum);
+            }
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        List<String> created = new ArrayList<>();
+        int[] uploaded = new int[0];
+        try {
+            con.setAutoCommit(false);
+            if (!uploads.isEmpty()) {
+                PreparedStatement statement = con.prepareStatement(insertAvailability);
+                for (Command command : uploads) {
+                    statement.setDate(1, command.date);
+                    statement.setString(2, username);
+                    statement.setDate(3, command.date);
+                    statement.setString(4, username);
+                    statement.addBatch();
+                }
+                uploaded = statement.executeBatch();
+            }
+            if (!doses.isEmpty()) {
+                List<String> names = new ArrayList<>(doses.keySet());
+                PreparedStatement update = con.prepareStatement(addDoses);
+                for (String name : names) {
+                    update.setInt(1, doses.get(name));
+                    update.setString(2, name);
+                    update.addBatch();
+                }
+                int[] updated = update.executeBatch();
+                for (int i = 0; i < names.size(); i++) {
+                    if (updated[i] == 0) {
+                        created.add(names.get(i));
+                    }
+                }
+                if (!created.isEmpty()) {
+                    PreparedStatement insert = con.prepareStatement(insertVaccine);
+                    for (String name : created) {
+                        insert.setString(1, name);
+                        insert.setInt(2, doses.get(name));
+                        insert.setString(3, name);
+                        insert.addBatch();
+                    }
+                    for (int count : insert.executeBatch()) {
+                        if (count == 0) {
+                            // created by someone else since the update; the replay handles it
+                            throw new SQLException("Vaccine created concurrently");
+                        }
+                    }
+                }
+            }
+            con.commit();
+            transactions++;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+
+        // mirror the committed changes in memory
+        for (int i = 0; i < uploads.size(); i++) {
+            Command command = uploads.get(i);
+            if (uploaded[i] == 0) {
+                // already uploaded, which the single insert reports as a key violation
+                command.failed = true;
+                command.message = "Error occurred when uploading availability";
+            } else {
+                AvailabilityIndex.getDefault().add(command.date, username);
+                Journal.record(JournalRecord.availabilityUploaded(username, command.date));
+                MatchingEngine.getDefault().availabilityAdded(command.date, command.date);
+                command.message = "Availability uploaded!";
+            }
+        }
+        VaccineInventory inventory = VaccineInventory.getDefault();
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            if (created.contains(entry.getKey())) {
+                inventory.recordCreated(entry.getKey(), entry.getValue());
+            } else {
+                inventory.recordCommitted(entry.getKey(), entry.getValue());
+            }
+            Journal.record(JournalRecord.dosesAdded(entry.getKey(), entry.getValue()));
+            MatchingEngine.getDefault().dosesAdded(entry.getKey());
+        }
+        for (Command command : writes) {
+            if (command.date == null) {
+                command.message = "Doses updated!";
+            }
+        }
+        ReplicaRouter.getDefault().markWrite(username);
+        groupedWrites += writes.size();
+    }
+
+    private String takeOutput() {
+        String text = captured.toString(StandardCharsets.UTF_8).strip();
+        captured.reset();
+        return text;
+    }
+
+    private void write(Command command, boolean error, String text) {
+        commands++;
+        output.println("{\"line\":" + command.lineNumber
+                + ",\"command\":" + quote(command.text)
+                + ",\"error\":" + error
+                + ",\"output\":" + quote(text) + "}");
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public String summary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("Ran %d commands in %.2fs: %d writes grouped into %d transaction(s), %d group(s) replayed"
+                + " one by one", commands, seconds, groupedWrites, transactions, replayedGroups);
+    }
+
+    // Statistics
+    public long getCommandCount() {
+        return commands;
+    }
+
+    public long getGroupedWriteCount() {
+        return groupedWrites;
+    }
+
+    public long getTransactionCount() {
+        return transactions;
+    }
+
+    public long getReplayedGroupCount() {
+        return replayedGroups;
+    }
+
+    private static class Command {
+        private final long lineNumber;
+        private final String text;
+        private final String[] tokens;
+
+        // filled in for grouped writes
+        private Date date = null;
+        private int doses = 0;
+        private String message = null;
+        private boolean failed = false;
+
+        private Command(long lineNumber, String text) {
+            this.lineNumber = lineNumber;
+            this.text = text;
+            this.tokens = Scheduler.tokenize(text);
+        }
+
+        private boolean isGroupable() {
+            return tokens[0].equals("add_doses") || tokens[0].equals("upload_availability");
+        }
+    }
+
+    public static class RunnerBuilder {
+        private final BufferedReader input;
+        private PrintStream output = System.out;
+        private int maxGroupSize = 500;
+
+        public RunnerBuilder(BufferedReader input) {
+            this.input = input;
+        }
+
+        public RunnerBuilder output(PrintStream output) {
+            this.output = output;
+            return this;
+        }
+
+        public RunnerBuilder maxGroupSize(int maxGroupSize) {
+            this.maxGroupSize = maxGroupSize;
+            return this;
+        }
+
+        public ScriptRunner build() {
+            if (maxGroupSize < 1) {
+                throw new IllegalArgumentException("maxGroupSize must be positive!");
+            }
+            return new ScriptRunner(this);
+        }
+    }
+}
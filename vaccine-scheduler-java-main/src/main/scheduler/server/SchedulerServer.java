@@ -0,0 +1,261 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the scheduler's line-based command protocol to many TCP clients at once.
+ *
+ * Every connection gets its own {@link Session}, so each client logs in and out independently, and runs on
+ * its own virtual thread when the JVM has them (Java 21+) or on a platform thread otherwise. Connections beyond
+ * the session limit are told the server is busy and closed. Shutdown stops accepting, lets sessions finish
+ * the command they are running for up to the grace period, then closes whatever is left.
+ */
+public class SchedulerServer {
+    public static final int DEFAULT_PORT = 4140;
+
+    private final int port;
+    private final int maxSessions;
+    private final int idleTimeoutMillis;
+    private final long shutdownGraceMillis;
+
+    private final Semaphore sessionSlots;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor;
+    private volatile ServerSocket serverSocket = null;
+    private volatile boolean running = false;
+
+    // metrics
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+
+    private SchedulerServer(ServerBuilder builder) {
+        this.port = builder.port;
+        this.maxSessions = builder.maxSessions;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.shutdownGraceMillis = builder.shutdownGraceMillis;
+        this.sessionSlots = new Semaphore(maxSessions);
+        this.executor = newSessionExecutor();
+    }
+
+    // Virtual threads are only available from Java 21; the project still targets 17, so look them up reflectively
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Accept connections until {@link #shutdown} is called. Blocks the calling thread.
+     */
+    public void serve() throws IOException {
+        serverSocket = new ServerSocket(port);
+        running = true;
+        System.out.println("Scheduler server listening on port " + serverSocket.getLocalPort()
+                + " (max " + maxSessions + " sessions)");
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!running) {
+                    break;
+                }
+                throw e;
+            }
+            if (!sessionSlots.tryAcquire()) {
+                rejected.incrementAndGet();
+                reject(socket);
+                continue;
+            }
+            accepted.incrementAndGet();
+            clients.add(socket);
+            try {
+                executor.execute(() -> {
+                    try {
+                        handle(socket);
+                    } finally {
+                        clients.remove(socket);
+                        sessionSlots.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                clients.remove(socket);
+                sessionSlots.release();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false,
+                     StandardCharsets.UTF_8)) {
+            s.setSoTimeout(idleTimeoutMillis);
+            Session session = new Session(out, true);
+            Scheduler.printGreeting(session);
+            out.print("> ");
+            out.flush();
+            String line;
+            while (running && (line = in.readLine()) != null) {
+                commands.incrementAndGet();
+                boolean keepGoing;
+                try {
+                    keepGoing = Scheduler.execute(session, line.trim());
+                } catch (SQLException | RuntimeException e) {
+                    session.println("Please try again!");
+                    e.printStackTrace();
+                    keepGoing = true;
+                }
+                if (!keepGoing) {
+                    out.flush();
+                    break;
+                }
+                out.print("> ");
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            // idle for too long, the socket is closed on the way out
+        } catch (IOException e) {
+            if (running) {
+                System.out.println("Session ended with error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket s = socket;
+             PrintStream out = new PrintStream(s.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            out.println("Server busy, please try again later!");
+        } catch (IOException ignored) {
+            // the client is going away either way
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    /**
+     * Stop accepting connections and wait up to the grace period for running commands to finish.
+     */
+    public void shutdown() {
+        running = false;
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+        // sessions blocked in readLine() notice the shutdown when their socket input is shut down
+        for (Socket client : clients) {
+            try {
+                client.shutdownInput();
+            } catch (IOException ignored) {
+                // the session is already on its way out
+            }
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownGraceMillis, TimeUnit.MILLISECONDS)) {
+                for (Socket client : clients) {
+                    closeQuietly(client);
+                }
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        ServerSocket ss = serverSocket;
+        return ss == null ? port : ss.getLocalPort();
+    }
+
+    // Metrics
+    public int getActiveSessions() {
+        return maxSessions - sessionSlots.availablePermits();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    public static class ServerBuilder {
+        private final int port;
+        private int maxSessions = Integer.getInteger("scheduler.server.maxSessions", 256);
+        private int idleTimeoutMillis = Integer.getInteger("scheduler.server.idleTimeoutMillis", 15 * 60_000);
+        private long shutdownGraceMillis = 10_000;
+
+        public ServerBuilder(int port) {
+            this.port = port;
+        }
+
+        public ServerBuilder maxSessions(int maxSessions) {
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        public ServerBuilder idleTimeoutMillis(int idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public ServerBuilder shutdownGraceMillis(long shutdownGraceMillis) {
+            this.shutdownGraceMillis = shutdownGraceMillis;
+            return this;
+        }
+
+        public SchedulerServer build() {
+            if (maxSessions < 1) {
+                throw new IllegalArgumentException("maxSessions must be positive!");
+            }
+            return new SchedulerServer(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package scheduler.service;
+
+import scheduler.cache.CaregiverLoad;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which of the caregivers available on a day a booking should try first. Booking still claims
+ * caregivers one at a time in the returned order until a claim succeeds, so a strategy only affects who gets
+ * the appointment, never whether the booking is correct.
+ *
+ * Chosen with -Dscheduler.assignment=power_of_two|least_loaded|round_robin|alphabetical (power_of_two by
+ * default). Spreading the first choice also spreads concurrent bookings for the same day over different
+ * availability rows, instead of every booking racing for the caregiver whose name sorts first.
+ */
+public interface AssignmentStrategy {
+
+    /**
+     * The candidates in the order to try them. The input is in username order and must not be modified.
+     */
+    List<String> order(Date date, List<String> candidates);
+
+    static AssignmentStrategy fromName(String name) {
+        switch (name.toLowerCase()) {
+            case "alphabetical":
+                return (date, candidates) -> candidates;
+            case "least_loaded":
+                return new LeastLoaded(CaregiverLoad.getDefault());
+            case "round_robin":
+                return new RoundRobin();
+            case "power_of_two":
+                return new PowerOfTwoChoices(CaregiverLoad.getDefault());
+            default:
+                throw new IllegalArgumentException("Unknown assignment strategy: " + name);
+        }
+    }
+
+    static AssignmentStrategy fromSettings() {
+        return fromName(System.getProperty("scheduler.assignment", "power_of_two"));
+    }
+
+    /**
+     * Fewest appointments first. Ties are broken randomly, so equally loaded caregivers share the contention.
+     */
+    class LeastLoaded implements AssignmentStrategy {
+        private final CaregiverLoad load;
+
+        public LeastLoaded(CaregiverLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public List<String> order(Date date, List<String> candidates) {
+            List<String> ordered = new ArrayList<>(candidates);
+            Collections.shuffle(ordered, ThreadLocalRandom.current());
+            ordered.sort(Comparator.comparingInt(load::get));
+            return ordered;
+        }
+    }
+
+    /**
+     * Each booking starts one caregiver further along the day's list than the previous booking did.
+     */
+    class RoundRobin implements AssignmentStrategy {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public List<String> order(Date date, List<String> candidates) {
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            int start = Math.floorMod(next.getAndIncrement(), candidates.size());
+            List<String> ordered = new ArrayList<>(candidates.size());
+            ordered.addAll(candidates.subList(start, candidates.size()));
+            ordered.addAll(candidates.subList(0, start));
+            return ordered;
+        }
+    }
+
+    /**
+     * Repeatedly pick two remaining candidates at random and take the less loaded one. Nearly as balanced as
+     * least-loaded, but concurrent bookings rarely pick the same first caregiver, and it needs no sort.
+     */
+    class PowerOfTwoChoices implements AssignmentStrategy {
+        private final CaregiverLoad load;
+
+        public PowerOfTwoChoices(CaregiverLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public List<String> order(Date date, List<String> candidates) {
+            List<String> remaining = new ArrayList<>(candidates);
+            List<String> ordered = new ArrayList<>(candidates.size());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (remaining.size() > 1) {
+                int a = random.nextInt(remaining.size());
+                int b = random.nextInt(remaining.size() - 1);
+                if (b >= a) {
+                    b++;
+                }
+                int pick = load.get(remaining.get(b)) < load.get(remaining.get(a)) ? b : a;
+                ordered.add(remaining.get(pick));
+                // swap-remove keeps each step constant time
+                remaining.set(pick, remaining.get(remaining.size() - 1));
+                remaining.remove(remaining.size() - 1);
+            }
+            ordered.addAll(remaining);
+            return ordered;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package scheduler.service;
+
+import scheduler.cache.VaccineInventory;
+import scheduler.metrics.Metrics;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking versions of the model classes' JDBC calls, so that the independent queries of one command can
+ * run at the same time.
+ *
+ * Calls run on a bounded pool of worker threads; once every worker is busy and the queue is full, callers block
+ * until a slot frees up, like PasswordHasher. Every call has a timeout (the default one, or one passed in). A
+ * call that times out or whose future is canceled is interrupted if it is running and skipped if it has not
+ * started; a statement already executing on the database still runs to completion before its connection goes
+ * back to the pool.
+ *
+ * The caller's metrics sample goes with the call, so the database work is charged to the command that asked
+ * for it.
+ */
+public class AsyncRepository {
+
+    // a blocking JDBC call
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private static volatile AsyncRepository defaultRepository = null;
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    private final long defaultTimeoutMillis;
+
+    // metrics
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+
+    public AsyncRepository(int threads, int queueCapacity, long defaultTimeoutMillis) {
+        if (threads < 1 || queueCapacity < 0 || defaultTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Invalid repository configuration!");
+        }
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.slots = new Semaphore(threads + queueCapacity, true);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+            Thread t = new Thread(r, "repository-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * The shared repository, configured with -Dscheduler.async.threads (default: the connection pool's maximum),
+     * -Dscheduler.async.queue and -Dscheduler.async.timeoutMillis.
+     */
+    public static AsyncRepository getDefault() {
+        AsyncRepository r = defaultRepository;
+        if (r == null) {
+            synchronized (AsyncRepository.class) {
+                r = defaultRepository;
+                if (r == null) {
+                    r = new AsyncRepository(
+                            Integer.getInteger("scheduler.async.threads", Integer.getInteger("scheduler.pool.max", 10)),
+                            Integer.getInteger("scheduler.async.queue", 256),
+                            Long.getLong("scheduler.async.timeoutMillis", 30_000));
+                    defaultRepository = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Run any JDBC call on the repository's threads with the default timeout.
+     */
+    public <T> CompletableFuture<T> supply(SqlCall<T> call) {
+        return supply(call, defaultTimeoutMillis);
+    }
+
+    public <T> CompletableFuture<T> supply(SqlCall<T> call, long timeoutMillis) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Metrics.Sample sample = Metrics.current();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            Metrics.Sample previous = Metrics.adopt(sample);
+            try {
+                if (!result.isDone()) {
+                    result.complete(call.call());
+                }
+            } catch (SQLException | RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                Metrics.restore(previous);
+            }
+            return null;
+        }) {
+            // runs once the call finishes or is canceled, including canceled before it started
+            @Override
+            protected void done() {
+                slots.release();
+            }
+        };
+        slots.acquireUninterruptibly();
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            slots.release();
+            result.completeExceptionally(e);
+            return result;
+        }
+        calls.incrementAndGet();
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, failure) -> {
+            if (failure instanceof TimeoutException) {
+                timeouts.incrementAndGet();
+                task.cancel(true);
+            } else if (failure instanceof CancellationException) {
+                cancellations.incrementAndGet();
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<Patient> getPatient(String username, String password) {
+        return supply(() -> new Patient.PatientGetter(username, password).get());
+    }
+
+    public CompletableFuture<Caregiver> getCaregiver(String username, String password) {
+        return supply(() -> new Caregiver.CaregiverGetter(username, password).get());
+    }
+
+    public CompletableFuture<Vaccine> getVaccine(String name) {
+        return supply(() -> new Vaccine.VaccineGetter(name).get());
+    }
+
+    // current doses per vaccine, from the inventory or the Vaccines table
+    public CompletableFuture<Map<String, Integer>> getVaccineStock() {
+        return supply(() -> VaccineInventory.getDefault().snapshot());
+    }
+
+    public CompletableFuture<Void> create(Patient patient) {
+        return supply(() -> {
+            patient.create();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> save(Caregiver caregiver) {
+        return supply(() -> {
+            caregiver.saveToDB();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> save(Vaccine vaccine) {
+        return supply(() -> {
+            vaccine.saveToDB();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> uploadAvailability(Caregiver caregiver, Date date) {
+        return supply(() -> {
+            caregiver.uploadAvailability(date);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> uploadAvailabilities(Caregiver caregiver, List<Date> dates) {
+        return supply(() -> caregiver.uploadAvailabilities(dates));
+    }
+
+    /**
+     * Wait for a call made through this repository and rethrow its failure as the SQLException a blocking call
+     * would have thrown; a timeout becomes an SQLTimeoutException.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database", e);
+        } catch (CancellationException e) {
+            throw new SQLException("Database call canceled", e);
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new SQLTimeoutException("Database call timed out", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Metrics
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getCancellationCount() {
+        return cancellations.get();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncRepository{" +
+                "calls=" + getCallCount() +
+                ", active=" + getActiveCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", cancellations=" + getCancellationCount() +
+                '}';
+    }
+}
@@ -0,0 +1,457 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ReplicaRouter;
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Books waitlisted patients when capacity appears.
+ *
+ * Uploading availability, adding doses and canceling an appointment each post an event. A single background
+ * thread takes the events in batches (waiting a short linger time so bursts are handled together), works out
+ * which waitlist entries the batch could help, and tries to book them in FIFO or priority order. Each entry is
+ * booked in its own short transaction the way reserve books: the waitlist row, the availability row and the
+ * dose are all claimed with row-count-checked deletes and updates, in the same order reserve takes its locks,
+ * so racing with reserve or with another scheduler process cannot double-book or deadlock for long. Deadlocks
+ * are retried. An entry that gets a caregiver but no dose is rolled back and stays waiting, and a patient is
+ * booked at most once per pass.
+ *
+ * When no event arrives for a sweep interval the engine runs a full pass over the waitlist, which picks up
+ * capacity added by other processes and anything lost to a failed batch.
+ */
+public class MatchingEngine {
+
+    public enum Order {
+        FIFO,
+        PRIORITY
+    }
+
+    private static final MatchingEngine defaultEngine = new MatchingEngine();
+
+    private static final String claimEntry = "DELETE FROM Waitlist WHERE Id = ?";
+    private static final String windowCandidates =
+            "SELECT Time, Username FROM Availabilities WHERE Time BETWEEN ? AND ? ORDER BY Time, Username";
+    private static final String claimAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    private static final String takeDose = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+    private static final String insertAppointment = "INSERT INTO Appointment VALUES (?, ?, ?, ?, ?)";
+
+    // how many caregivers to look at per waiting entry when the availability index is not loaded
+    private static final int MAX_CANDIDATES = 50;
+    private static final int MAX_ATTEMPTS = 5;
+    // returned by book when the entry's vaccine has no doses left
+    private static final Booking NO_DOSE = new Booking(null, null, null);
+
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    private final IdAllocator idAllocator = IdAllocator.forAppointments();
+    private final AssignmentStrategy strategy = AssignmentStrategy.fromSettings();
+    private volatile Thread worker = null;
+    private volatile boolean running = false;
+    private Order order = Order.FIFO;
+    private int batchSize = 500;
+    private long lingerMillis = 50;
+    private long sweepMillis = 60_000;
+
+    // metrics
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong failedPasses = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public static MatchingEngine getDefault() {
+        return defaultEngine;
+    }
+
+    public synchronized void start(Order order, int batchSize, long lingerMillis, long sweepMillis) {
+        if (worker != null) {
+            return;
+        }
+        this.order = order;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.sweepMillis = sweepMillis;
+        running = true;
+        worker = new Thread(this::run, "waitlist-matcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the background thread. Events still queued are dropped; the next start's sweep covers them.
+     */
+    public synchronized void stop() {
+        Thread t = worker;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        t.interrupt();
+        try {
+            t.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+        events.clear();
+    }
+
+    // Events, ignored while the engine is not running
+
+    public void availabilityAdded(Date from, Date to) {
+        post(new Event(from, to, null));
+    }
+
+    public void dosesAdded(String vaccine) {
+        post(new Event(null, null, vaccine));
+    }
+
+    public void appointmentCanceled(Date date, String vaccine) {
+        post(new Event(date, date, vaccine));
+    }
+
+    void waitlistJoined(String vaccine) {
+        post(new Event(null, null, vaccine));
+    }
+
+    private void post(Event event) {
+        if (running) {
+            eventCount.incrementAndGet();
+            events.offer(event);
+        }
+    }
+
+    private void run() {
+        // catch up with whatever happened while no engine was running
+        pass(null);
+        while (running) {
+            try {
+                Event first = events.poll(sweepMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    pass(null);
+                    continue;
+                }
+                Thread.sleep(lingerMillis);
+                List<Event> batch = new ArrayList<>();
+                batch.add(first);
+                events.drainTo(batch, batchSize - 1);
+                pass(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // one matching pass; a null batch means every waiting entry is a candidate
+    private void pass(List<Event> batch) {
+        try {
+            match(batch);
+            passes.incrementAndGet();
+        } catch (SQLException e) {
+            failedPasses.incrementAndGet();
+            System.out.println("Error occurred when matching the waitlist");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run one matching pass for the given events now (every entry if null). Returns the number booked. Bookings
+     * made before a failure stay booked; the entries after it wait for the next pass.
+     */
+    public int match(List<Event> batch) throws SQLException {
+        List<Entry> waiting;
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            waiting = candidates(con, batch);
+        } finally {
+            cm.closeConnection();
+        }
+        int booked = 0;
+        Set<String> outOfStock = new HashSet<>();
+        Set<String> bookedPatients = new HashSet<>();
+        for (Entry entry : waiting) {
+            // a patient waiting for several vaccines or windows gets one appointment per pass
+            if (outOfStock.contains(entry.vaccine) || bookedPatients.contains(entry.patient)) {
+                continue;
+            }
+            Booking booking = book(entry);
+            if (booking == NO_DOSE) {
+                outOfStock.add(entry.vaccine);
+            } else if (booking != null) {
+                bookedPatients.add(entry.patient);
+                booked++;
+            }
+        }
+        return booked;
+    }
+
+    // Book one entry in its own transaction, retrying deadlocks like reserve does. Returns the booking, NO_DOSE,
+    // or null if the entry is gone or no caregiver is free in its window.
+    private Booking book(Entry entry) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(entry);
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS || !ReservationEngine.isRetryable(e)) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(1, 10L << attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Locks are taken in the order reserve takes them (availability, then dose, then the appointment id), after
+    // the waitlist row that reserve never touches, so the two cannot deadlock each other
+    private Booking attempt(Entry entry) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getDefault();
+        AvailabilityIndex index = AvailabilityIndex.getDefault();
+        boolean writeBehind = inventory.isWriteBehind();
+        boolean allocated = false;
+        boolean committed = false;
+        Booking booking;
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement entryClaim = con.prepareStatement(claimEntry);
+            entryClaim.setInt(1, entry.id);
+            if (entryClaim.executeUpdate() != 1) {
+                // left the waitlist or booked by another process
+                con.rollback();
+                return null;
+            }
+            booking = claimCaregiver(con, con.prepareStatement(claimAvailability), index, entry);
+            if (booking == null) {
+                // gives the waitlist row back
+                con.rollback();
+                return null;
+            }
+            if (writeBehind) {
+                allocated = inventory.tryAllocate(entry.vaccine);
+                if (!allocated) {
+                    con.rollback();
+                    return NO_DOSE;
+                }
+            } else {
+                PreparedStatement dose = con.prepareStatement(takeDose);
+                dose.setString(1, entry.vaccine);
+                if (dose.executeUpdate() != 1) {
+                    // gives the caregiver and the waitlist row back
+                    con.rollback();
+                    return NO_DOSE;
+                }
+            }
+            booking.id = idAllocator.nextId(con);
+            PreparedStatement insert = con.prepareStatement(insertAppointment);
+            insert.setInt(1, booking.id);
+            insert.setString(2, entry.patient);
+            insert.setString(3, booking.caregiver);
+            insert.setString(4, entry.vaccine);
+            insert.setDate(5, booking.date);
+            insert.executeUpdate();
+            con.commit();
+            committed = true;
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException ignored) {
+                // the original failure is the one worth reporting
+            }
+            throw e;
+        } finally {
+            if (allocated && !committed) {
+                inventory.release(entry.vaccine);
+            }
+            cm.closeConnection();
+        }
+
+        matched.incrementAndGet();
+        index.remove(booking.date, booking.caregiver);
+        CaregiverLoad.getDefault().booked(booking.caregiver);
+        ReplicaRouter.getDefault().markWrite(entry.patient);
+        ReplicaRouter.getDefault().markWrite(booking.caregiver);
+        Journal.record(JournalRecord.reserved(booking.id, entry.patient, booking.caregiver, entry.vaccine,
+                booking.date));
+        if (!writeBehind) {
+            inventory.recordCommitted(entry.vaccine, -1);
+        }
+        return booking;
+    }
+
+    // Waiting entries the batch could help, in booking order: entries for a vaccine that got doses back, or whose
+    // window overlaps the days that got caregivers back
+    private List<Entry> candidates(Connection con, List<Event> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT Id, Patient, Vaccine, FromDate, ToDate FROM Waitlist");
+        List<Object> parameters = new ArrayList<>();
+        if (batch != null) {
+            Set<String> vaccines = new HashSet<>();
+            Date from = null;
+            Date to = null;
+            for (Event event : batch) {
+                if (event.vaccine != null) {
+                    vaccines.add(event.vaccine);
+                }
+                if (event.from != null) {
+                    from = from == null || event.from.before(from) ? event.from : from;
+                    to = to == null || event.to.after(to) ? event.to : to;
+                }
+            }
+            List<String> conditions = new ArrayList<>();
+            if (!vaccines.isEmpty()) {
+                conditions.add("Vaccine IN (" + String.join(", ", Collections.nCopies(vaccines.size(), "?"))
+                        + ")");
+                parameters.addAll(vaccines);
+            }
+            if (from != null) {
+                conditions.add("(FromDate <= ? AND ToDate >= ?)");
+                parameters.add(to);
+                parameters.add(from);
+            }
+            sql.append(" WHERE ").append(String.join(" OR ", conditions));
+        }
+        sql.append(order == Order.PRIORITY ? " ORDER BY Priority DESC, Id" : " ORDER BY Id");
+
+        PreparedStatement statement = con.prepareStatement(sql.toString());
+        for (int i = 0; i < parameters.size(); i++) {
+            Object parameter = parameters.get(i);
+            if (parameter instanceof Date) {
+                statement.setDate(i + 1, (Date) parameter);
+            } else {
+                statement.setString(i + 1, (String) parameter);
+            }
+        }
+        statement.setMaxRows(batchSize);
+        ResultSet resultSet = statement.executeQuery();
+        List<Entry> entries = new ArrayList<>();
+        while (resultSet.next()) {
+            entries.add(new Entry(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3),
+                    resultSet.getDate(4), resultSet.getDate(5)));
+        }
+        return entries;
+    }
+
+    // The earliest caregiver in the entry's window whose availability row this transaction deleted, or null
+    private Booking claimCaregiver(Connection con, PreparedStatement claim, AvailabilityIndex index, Entry entry)
+            throws SQLException {
+        SortedMap<Date, List<String>> candidates;
+        if (index.isLoaded()) {
+            candidates = index.range(entry.from, entry.to);
+        } else {
+            candidates = new TreeMap<>();
+            PreparedStatement select = con.prepareStatement(windowCandidates);
+            select.setDate(1, entry.from);
+            select.setDate(2, entry.to);
+            select.setMaxRows(MAX_CANDIDATES);
+            ResultSet resultSet = select.executeQuery();
+            while (resultSet.next()) {
+                candidates.computeIfAbsent(resultSet.getDate(1), k -> new ArrayList<>()).add(resultSet.getString(2));
+            }
+        }
+        for (Map.Entry<Date, List<String>> day : candidates.entrySet()) {
+            for (String caregiver : strategy.order(day.getKey(), day.getValue())) {
+                claim.setDate(1, day.getKey());
+                claim.setString(2, caregiver);
+                if (claim.executeUpdate() == 1) {
+                    return new Booking(entry, day.getKey(), caregiver);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Metrics
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    public long getPassCount() {
+        return passes.get();
+    }
+
+    public long getMatchedCount() {
+        return matched.get();
+    }
+
+    public long getFailedPassCount() {
+        return failedPasses.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Capacity that appeared: days from..to got caregivers, and/or the vaccine got doses.
+     */
+    public static class Event {
+        private final Date from;
+        private final Date to;
+        private final String vaccine;
+
+        private Event(Date from, Date to, String vaccine) {
+            this.from = from;
+            this.to = to;
+            this.vaccine = vaccine;
+        }
+    }
+
+    private static class Entry {
+        private final int id;
+        private final String patient;
+        private final String vaccine;
+        private final Date from;
+        private final Date to;
+
+        private Entry(int id, String patient, String vaccine, Date from, Date to) {
+            this.id = id;
+            this.patient = patient;
+            this.vaccine = vaccine;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static class Booking {
+        private final Entry entry;
+        private final Date date;
+        private final String caregiver;
+        private int id;
+
+        private Booking(Entry entry, Date date, String caregiver) {
+            this.entry = entry;
+            this.date = date;
+            this.caregiver = caregiver;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ReplicaRouter;
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+import scheduler.metrics.ReservationStatsMBean;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Books appointments in a single transaction.
+ *
+ * A caregiver is claimed by deleting its availability row and checking the row count, so two patients racing
+ * for the same caregiver/date cannot both win; the loser simply moves on to the next candidate. The dose is
+ * taken with a conditional relative update, so concurrent reservations never lose an update or go negative
+ * (when the VaccineInventory runs write-behind, the dose comes from its in-memory counter instead).
+ * Deadlocks and duplicate appointment ids roll the whole transaction back and retry it. Which available
+ * caregiver is tried first is up to the {@link AssignmentStrategy}.
+ */
+public class ReservationEngine implements ReservationStatsMBean {
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    private static final String selectCandidates =
+            "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username ASC";
+    private static final String claimAvailability =
+            "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    private static final String takeDose =
+            "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0";
+    private static final String insertAppointment = "INSERT INTO Appointment VALUES (?, ?, ?, ?, ?)";
+
+    private final int maxAttempts;
+    private final IdAllocator idAllocator;
+    private final AssignmentStrategy strategy;
+
+    // metrics
+    private final AtomicLong booked = new AtomicLong();
+    private final AtomicLong noCaregiver = new AtomicLong();
+    private final AtomicLong noDose = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong firstCallNanos = new AtomicLong();
+
+    public ReservationEngine() {
+        this(DEFAULT_MAX_ATTEMPTS, IdAllocator.forAppointments(), AssignmentStrategy.fromSettings());
+    }
+
+    public ReservationEngine(int maxAttempts, IdAllocator idAllocator, AssignmentStrategy strategy) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive!");
+        }
+        this.maxAttempts = maxAttempts;
+        this.idAllocator = idAllocator;
+        this.strategy = strategy;
+    }
+
+    public ReservationResult reserve(String patient, Date date, String vaccine) throws SQLException {
+        long start = System.nanoTime();
+        firstCallNanos.compareAndSet(0, start);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    ReservationResult result = attempt(patient, date, vaccine);
+                    record(result);
+                    return result;
+                } catch (SQLException e) {
+                    if (attempt >= maxAttempts || !isRetryable(e)) {
+                        failures.incrementAndGet();
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                    backoff(attempt);
+                }
+            }
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private ReservationResult attempt(String patient, Date date, String vaccine) throws SQLException {
+        VaccineInventory inventory = VaccineInventory.getDefault();
+        boolean writeBehind = inventory.isWriteBehind();
+        boolean allocated = false;
+        boolean committed = false;
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            con.setAutoCommit(false);
+
+            String caregiver = claimCaregiver(con, date);
+            if (caregiver == null) {
+                con.rollback();
+                return ReservationResult.noCaregiver(date);
+            }
+
+            if (writeBehind) {
+                // the in-memory counter is the authority; the decrement reaches the table with the next flush
+                allocated = inventory.tryAllocate(vaccine);
+                if (!allocated) {
+                    con.rollback();
+                    return ReservationResult.noDose(date);
+                }
+            } else {
+                PreparedStatement doseStatement = con.prepareStatement(takeDose);
+                doseStatement.setString(1, vaccine);
+                if (doseStatement.executeUpdate() != 1) {
+                    // gives the claimed availability back
+                    con.rollback();
+                    return ReservationResult.noDose(date);
+                }
+            }
+
+            int id = idAllocator.nextId(con);
+            PreparedStatement insert = con.prepareStatement(insertAppointment);
+            insert.setInt(1, id);
+            insert.setString(2, patient);
+            insert.setString(3, caregiver);
+            insert.setString(4, vaccine);
+            insert.setDate(5, date);
+            insert.executeUpdate();
+
+            con.commit();
+            committed = true;
+            AvailabilityIndex.getDefault().remove(date, caregiver);
+            CaregiverLoad.getDefault().booked(caregiver);
+            // the patient is marked by the reserve command itself
+            ReplicaRouter.getDefault().markWrite(caregiver);
+            Journal.record(JournalRecord.reserved(id, patient, caregiver, vaccine, date));
+            if (!writeBehind) {
+                inventory.recordCommitted(vaccine, -1);
+            }
+            return ReservationResult.booked(id, caregiver, date);
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException ignored) {
+                // the original failure is the one worth reporting
+            }
+            throw e;
+        } finally {
+            if (allocated && !committed) {
+                inventory.release(vaccine);
+            }
+            cm.closeConnection();
+        }
+    }
+
+    // Returns the caregiver whose availability row this transaction deleted, or null if every candidate is gone.
+    // Candidates come from the availability index when it is loaded; the DELETE row count stays the authority,
+    // and the table is only queried when none of the indexed candidates could be claimed
+    private String claimCaregiver(Connection con, Date date) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getDefault();
+        PreparedStatement claim = con.prepareStatement(claimAvailability);
+        List<String> tried = new ArrayList<>();
+        if (index.isLoaded()) {
+            for (String candidate : strategy.order(date, index.caregivers(date))) {
+                if (tryClaim(claim, date, candidate)) {
+                    return candidate;
+                }
+                // the row is gone (claimed or removed elsewhere), stop offering it until the next resync
+                index.remove(date, candidate);
+                tried.add(candidate);
+            }
+        }
+
+        PreparedStatement select = con.prepareStatement(selectCandidates);
+        select.setDate(1, date);
+        ResultSet resultSet = select.executeQuery();
+        List<String> candidates = new ArrayList<>();
+        while (resultSet.next()) {
+            candidates.add(resultSet.getString(1));
+        }
+        for (String candidate : strategy.order(date, candidates)) {
+            if (!tried.contains(candidate) && tryClaim(claim, date, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean tryClaim(PreparedStatement claim, Date date, String candidate) throws SQLException {
+        claim.setDate(1, date);
+        claim.setString(2, candidate);
+        return claim.executeUpdate() == 1;
+    }
+
+    // deadlock victim (SQL Server 1205 / SQLState 40001) or a concurrent insert of the same appointment id
+    // (2627/2601 / SQLState 23505); other constraint violations fail the same way on every attempt
+    static boolean isRetryable(SQLException e) {
+        String state = e.getSQLState();
+        int code = e.getErrorCode();
+        return code == 1205 || code == 2627 || code == 2601
+                || (state != null && (state.equals("40001") || state.equals("23505")));
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, 10L << attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record(ReservationResult result) {
+        switch (result.getStatus()) {
+            case BOOKED:
+                booked.incrementAndGet();
+                break;
+            case NO_CAREGIVER:
+                noCaregiver.incrementAndGet();
+                break;
+            case NO_DOSE:
+                noDose.incrementAndGet();
+                break;
+        }
+    }
+
+    // Metrics
+    @Override
+    public long getBookedCount() {
+        return booked.get();
+    }
+
+    @Override
+    public long getNoCaregiverCount() {
+        return noCaregiver.get();
+    }
+
+    @Override
+    public long getNoDoseCount() {
+        return noDose.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getCompletedCount() {
+        return booked.get() + noCaregiver.get() + noDose.get();
+    }
+
+    // completed reservations per second of wall-clock time since the first call, across all callers
+    @Override
+    public double getThroughput() {
+        long first = firstCallNanos.get();
+        if (first == 0) {
+            return 0;
+        }
+        double seconds = (System.nanoTime() - first) / 1e9;
+        return seconds <= 0 ? 0 : getCompletedCount() / seconds;
+    }
+
+    @Override
+    public double getAverageLatencyMillis() {
+        long n = getCompletedCount() + failures.get();
+        return n == 0 ? 0 : busyNanos.get() / 1e6 / n;
+    }
+
+    @Override
+    public String toString() {
+        return "ReservationEngine{" +
+                "booked=" + getBookedCount() +
+                ", noCaregiver=" + getNoCaregiverCount() +
+                ", noDose=" + getNoDoseCount() +
+                ", retries=" + getRetryCount() +
+                ", failures=" + getFailureCount() +
+                ", throughput=" + String.format("%.1f/s", getThroughput()) +
+                ", avgLatency=" + String.format("%.2fms", getAverageLatencyMillis()) +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package scheduler.service;
+
+import java.sql.Date;
+
+/**
+ * Outcome of a single reservation attempt.
+ */
+public class ReservationResult {
+
+    public enum Status {
+        BOOKED,
+        NO_CAREGIVER,
+        NO_DOSE
+    }
+
+    private final Status status;
+    private final int appointmentId;
+    private final String caregiver;
+    private final Date date;
+
+    private ReservationResult(Status status, int appointmentId, String caregiver, Date date) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.caregiver = caregiver;
+        this.date = date;
+    }
+
+    public static ReservationResult booked(int appointmentId, String caregiver, Date date) {
+        return new ReservationResult(Status.BOOKED, appointmentId, caregiver, date);
+    }
+
+    public static ReservationResult noCaregiver(Date date) {
+        return new ReservationResult(Status.NO_CAREGIVER, -1, null, date);
+    }
+
+    public static ReservationResult noDose(Date date) {
+        return new ReservationResult(Status.NO_DOSE, -1, null, date);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isBooked() {
+        return status == Status.BOOKED;
+    }
+
+    // only meaningful when the reservation was booked
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    @Override
+    public String toString() {
+        return "ReservationResult{" +
+                "status=" + status +
+                ", appointmentId=" + appointmentId +
+                ", caregiver='" + caregiver + '\'' +
+                ", date=" + date +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package scheduler.service;
+
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.SequenceIdAllocator;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Patients waiting for an appointment with a given vaccine on any day of a date window. Rows live in the
+ * Waitlist table until the {@link MatchingEngine} books them or the patient leaves.
+ */
+public class Waitlist {
+    private static final String insertEntry = "INSERT INTO Waitlist (Id, Patient, Vaccine, FromDate, ToDate, " +
+            "Priority, JoinedAt) VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+    private static final String deleteEntry = "DELETE FROM Waitlist WHERE Id = ? AND Patient = ?";
+    private static final String selectEntries = "SELECT Id, Vaccine, FromDate, ToDate FROM Waitlist " +
+            "WHERE Patient = ? ORDER BY Id";
+
+    private static final IdAllocator ids = new SequenceIdAllocator("WaitlistIdSeq");
+
+    /**
+     * Add the patient to the waitlist and wake the matching engine. Returns the waitlist id; throws
+     * IllegalArgumentException if there is no such vaccine.
+     */
+    public static int join(String patient, String vaccine, Date from, Date to, int priority) throws SQLException {
+        if (VaccineInventory.getDefault().getDoses(vaccine) == null) {
+            throw new IllegalArgumentException("No such vaccine!");
+        }
+        int id;
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            id = ids.nextId(con);
+            PreparedStatement statement = con.prepareStatement(insertEntry);
+            statement.setInt(1, id);
+            statement.setString(2, patient);
+            statement.setString(3, vaccine);
+            statement.setDate(4, from);
+            statement.setDate(5, to);
+            statement.setInt(6, priority);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+        // there may already be a free caregiver and dose for this window
+        MatchingEngine.getDefault().waitlistJoined(vaccine);
+        return id;
+    }
+
+    /**
+     * Remove one of the patient's entries. Returns false if the patient has no entry with that id.
+     */
+    public static boolean leave(String patient, int id) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(deleteEntry);
+            statement.setInt(1, id);
+            statement.setString(2, patient);
+            return statement.executeUpdate() == 1;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * The patient's entries in the order they joined, as "id vaccine from to".
+     */
+    public static List<String> entries(String patient) throws SQLException {
+        List<String> entries = new ArrayList<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.openConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(selectEntries);
+            statement.setString(1, patient);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                entries.add(resultSet.getInt(1) + " " + resultSet.getString(2) + " " + resultSet.getDate(3)
+                        + " " + resultSet.getDate(4));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,261 @@
+package scheduler.util;
+
+import scheduler.metrics.HasherStatsMBean;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PBKDF2 password hashing on a small, bounded pool of worker threads.
+ *
+ * Each worker keeps its own SecretKeyFactory and SecureRandom, so neither is created per call. The number of
+ * hashes queued or running is capped; callers beyond the cap block until a slot frees up, which keeps a burst
+ * of logins from taking every core away from the other commands.
+ *
+ * The work factor (PBKDF2 iteration count) is stored next to every hash. When the configured work factor is
+ * raised, rows hashed with a lower one still verify and can be rehashed on the next successful login.
+ */
+public class PasswordHasher implements HasherStatsMBean {
+    // the parameters every hash stored before the work factor became configurable was made with
+    public static final int LEGACY_ITERATIONS = 10;
+    private static final int KEY_LENGTH = 16;
+    private static final int SALT_LENGTH = 16;
+
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+
+    private static volatile PasswordHasher defaultHasher = null;
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+
+    // metrics
+    private final AtomicLong hashes = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    public PasswordHasher(int iterations, int threads, int queueCapacity) {
+        if (iterations < 1 || threads < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid hasher configuration!");
+        }
+        this.iterations = iterations;
+        this.slots = new Semaphore(threads + queueCapacity, true);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+            Thread t = new Thread(r, "password-hasher-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * The shared hasher, configured with -Dscheduler.hash.iterations, -Dscheduler.hash.threads
+     * and -Dscheduler.hash.queue.
+     */
+    public static PasswordHasher getDefault() {
+        PasswordHasher h = defaultHasher;
+        if (h == null) {
+            synchronized (PasswordHasher.class) {
+                h = defaultHasher;
+                if (h == null) {
+                    int cores = Runtime.getRuntime().availableProcessors();
+                    h = new PasswordHasher(
+                            Integer.getInteger("scheduler.hash.iterations", LEGACY_ITERATIONS),
+                            Integer.getInteger("scheduler.hash.threads", Math.max(1, cores / 2)),
+                            Integer.getInteger("scheduler.hash.queue", 64));
+                    defaultHasher = h;
+                }
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public int getIterations() {
+        return iterations;
+    }
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        randoms.get().nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Hash a new password with a fresh salt and the configured work factor.
+     */
+    public Hashed hash(String password) {
+        return await(hashAsync(password));
+    }
+
+    /**
+     * Check a password against a stored hash made with the given work factor. Stored hashes may carry the
+     * zero padding of a fixed-width BINARY column.
+     */
+    public boolean verify(String password, byte[] salt, byte[] storedHash, int storedIterations) {
+        byte[] calculated = await(submit(() -> derive(password, salt, storedIterations)));
+        if (storedHash.length < calculated.length) {
+            return false;
+        }
+        byte[] padded = Arrays.copyOf(calculated, storedHash.length);
+        return MessageDigest.isEqual(padded, storedHash);
+    }
+
+    public boolean needsRehash(int storedIterations) {
+        return storedIterations < iterations;
+    }
+
+    // Derive on the calling thread with the calling thread's factory; used by the workers and by Util
+    static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalStateException();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Hash a new password without waiting for the result. Blocks only while the hashing queue is full.
+     */
+    public Future<Hashed> hashAsync(String password) {
+        return submit(() -> {
+            byte[] salt = newSalt();
+            return new Hashed(salt, derive(password, salt, iterations), iterations);
+        });
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        // a slot is held from submission until the task finishes, so the executor queue can never overflow
+        if (!slots.tryAcquire()) {
+            waits.incrementAndGet();
+            slots.acquireUninterruptibly();
+        }
+        try {
+            return executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    hashes.incrementAndGet();
+                    hashNanos.addAndGet(System.nanoTime() - start);
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Metrics
+    @Override
+    public long getHashCount() {
+        return hashes.get();
+    }
+
+    @Override
+    public double getHashesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : hashes.get() / seconds;
+    }
+
+    @Override
+    public double getAverageHashMillis() {
+        long n = hashes.get();
+        return n == 0 ? 0 : hashNanos.get() / 1e6 / n;
+    }
+
+    // number of callers that had to wait because the hashing queue was full
+    @Override
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHasher{" +
+                "iterations=" + iterations +
+                ", hashes=" + getHashCount() +
+                ", hashesPerSecond=" + String.format("%.1f", getHashesPerSecond()) +
+                ", avgHash=" + String.format("%.2fms", getAverageHashMillis()) +
+                ", waits=" + getWaitCount() +
+                ", queued=" + getQueueDepth() +
+                '}';
+    }
+
+    /**
+     * A freshly computed salt, hash and the work factor used to compute it.
+     */
+    public static class Hashed {
+        private final byte[] salt;
+        private final byte[] hash;
+        private final int iterations;
+
+        private Hashed(byte[] salt, byte[] hash, int iterations) {
+            this.salt = salt;
+            this.hash = hash;
+            this.iterations = iterations;
+        }
+
+        public byte[] getSalt() {
+            return salt;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+    }
+}